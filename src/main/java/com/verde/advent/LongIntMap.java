@@ -0,0 +1,137 @@
+package com.verde.advent;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to int values, using open addressing with linear probing over primitive arrays,
+ * so neither keys nor values are boxed. It only grows; there is no remove().
+ *
+ * @author bverde
+ */
+public class LongIntMap {
+    private static final long EMPTY = Long.MIN_VALUE;
+    
+    private long[] keys;
+    private int[] values;
+    private int size;
+    
+    // EMPTY marks a free slot, so a key equal to it is kept to one side
+    private boolean hasEmptyKey;
+    private int emptyKeyValue;
+    
+    public LongIntMap() {
+        this(16);
+    }
+    
+    public LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(2 * expectedSize, 16) - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+    }
+    
+    /**
+     * Pack two ints into a long key, for example the x and y of a grid position.
+     */
+    public static long pack(int hi, int lo) {
+        return ((long) hi << 32) | (lo & 0xffffffffL);
+    }
+    
+    public int size() {
+        return size;
+    }
+    
+    public boolean containsKey(long key) {
+        return (key == EMPTY) ? hasEmptyKey : (keys[slot(key)] == key);
+    }
+    
+    /**
+     * Return the value for the key, or missing if there isn't one.
+     */
+    public int get(long key, int missing) {
+        if (key == EMPTY) {
+            return hasEmptyKey ? emptyKeyValue : missing;
+        }
+        
+        int slot = slot(key);
+        return (keys[slot] == key) ? values[slot] : missing;
+    }
+    
+    public void put(long key, int value) {
+        insert(key, value, true);
+    }
+    
+    /**
+     * Add the key with the value, unless the key is already present.
+     *
+     * @return true if the key was added
+     */
+    public boolean putIfAbsent(long key, int value) {
+        return insert(key, value, false);
+    }
+    
+    private boolean insert(long key, int value, boolean replace) {
+        if (key == EMPTY) {
+            boolean added = !hasEmptyKey;
+            if (added || replace) {
+                emptyKeyValue = value;
+            }
+            
+            size += added ? 1 : 0;
+            hasEmptyKey = true;
+            return added;
+        }
+        
+        int slot = slot(key);
+        if (keys[slot] == key) {
+            if (replace) {
+                values[slot] = value;
+            }
+            return false;
+        }
+        
+        keys[slot] = key;
+        values[slot] = value;
+        if (++size > keys.length / 2) {
+            grow();
+        }
+        return true;
+    }
+    
+    /** Return the slot holding the key, or the free slot where it would go. */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int slot = hash(key) & mask;
+        while ((keys[slot] != EMPTY) && (keys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        
+        return slot;
+    }
+    
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        
+        keys = new long[2 * oldKeys.length];
+        values = new int[2 * oldValues.length];
+        Arrays.fill(keys, EMPTY);
+        for (int i=0; i<oldKeys.length; ++i) {
+            if (oldKeys[i] != EMPTY) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+    
+    /** Spread the key's bits (the MurmurHash3 finalizer), since packed coordinates cluster in the low bits. */
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
@@ -0,0 +1,444 @@
+package com.verde.advent.y2016;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import com.verde.advent.y2016.Y2016D12.Program;
+
+/**
+ * AssembunnyCompiler turns a compiled assembunny {@link Program} into a JVM class, so HotSpot can JIT the program itself
+ * rather than the interpreter loop. The class is written by hand with a minimal classfile emitter (no bytecode library),
+ * and implements {@code Consumer<int[]>} over the (a, b, c, d) register file.
+ * <p>
+ * The registers live in locals for the whole run and each assembunny instruction starts at a label, so jumps become
+ * plain branches. Superinstructions from {@link Program#optimise()} compile to a guarded fast path followed by the
+ * instruction they replaced, just like the interpreter. Classes are version 49, which needs no stack map frames.
+ *
+ * @author bumpverde
+ */
+public class AssembunnyCompiler {
+    private static final AtomicInteger CLASS_COUNT = new AtomicInteger();
+    private static final int FIRST_REGISTER_LOCAL = 2;     // 0 is this, 1 is the int[] register file
+    private static final int MAX_CODE_LENGTH = 65535;       // the JVM's limit on the bytecode in one method
+
+    // JVM opcodes used by the emitter
+    private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC = 0x12, LDC_W = 0x13;
+    private static final int ILOAD = 0x15, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, IALOAD = 0x2e;
+    private static final int ISTORE = 0x36, ASTORE_1 = 0x4c, IASTORE = 0x4f;
+    private static final int IADD = 0x60, IMUL = 0x68, IINC = 0x84;
+    private static final int IFNE = 0x9a, IFLE = 0x9e, GOTO = 0xa7, RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7, CHECKCAST = 0xc0;
+
+    /**
+     * Compile the program to a new class and return an instance of it.
+     * Running it updates the register file in place, exactly as {@link Program#run(int[])} does.
+     */
+    @SuppressWarnings("unchecked")
+    public static Consumer<int[]> compile(Program program) {
+        String name = String.format("com/verde/advent/y2016/CompiledAssembunny%d", CLASS_COUNT.incrementAndGet());
+        byte[] classFile = new ClassWriter(name, program).toByteArray();
+
+        try {
+            Class<?> compiled = new Loader(AssembunnyCompiler.class.getClassLoader()).define(name.replace('/', '.'), classFile);
+            return (Consumer<int[]>) compiled.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("unable to load the compiled program " + name, e);
+        }
+    }
+
+    private static class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+
+    /**
+     * ClassWriter lays out the classfile: a constant pool, a no-arg constructor, and accept(Object).
+     */
+    private static class ClassWriter {
+        final ConstantPool pool = new ConstantPool();
+        final String name;
+        final Program program;
+
+        ClassWriter(String name, Program program) {
+            this.name = name;
+            this.program = program;
+        }
+
+        byte[] toByteArray() {
+            // Build the method bodies first, since they add to the constant pool
+            int thisClass = pool.classRef(name);
+            int superClass = pool.classRef("java/lang/Object");
+            int consumer = pool.classRef("java/util/function/Consumer");
+            int init = pool.utf8("<init>");
+            int initDesc = pool.utf8("()V");
+            int accept = pool.utf8("accept");
+            int acceptDesc = pool.utf8("(Ljava/lang/Object;)V");
+            int codeAttr = pool.utf8("Code");
+
+            Code ctor = new Code();
+            ctor.op(ALOAD_0).op(INVOKESPECIAL).u2(pool.methodRef("java/lang/Object", "<init>", "()V")).op(RETURN);
+            Code body = new MethodBuilder(program, pool).build();
+
+            try {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                DataOutputStream out = new DataOutputStream(bytes);
+
+                out.writeInt(0xcafebabe);
+                out.writeShort(0);              // minor version
+                out.writeShort(49);             // major version: Java 5, so no stack map frames are required
+                out.writeShort(pool.count);
+                out.write(pool.toByteArray());
+                out.writeShort(0x0031);         // public final super
+                out.writeShort(thisClass);
+                out.writeShort(superClass);
+                out.writeShort(1);
+                out.writeShort(consumer);
+                out.writeShort(0);              // fields
+                out.writeShort(2);              // methods
+                writeMethod(out, init, initDesc, codeAttr, ctor, 1, 1);
+                writeMethod(out, accept, acceptDesc, codeAttr, body, 4, FIRST_REGISTER_LOCAL + Y2016D12.REGISTER_NAMES.length());
+                out.writeShort(0);              // attributes
+
+                return bytes.toByteArray();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        void writeMethod(DataOutputStream out, int name, int desc, int codeAttr, Code code, int maxStack, int maxLocals) throws IOException {
+            if (code.length > MAX_CODE_LENGTH) {
+                throw new IllegalStateException(String.format("program is too large to compile: method is %d bytes", code.length));
+            }
+
+            out.writeShort(0x0001);             // public
+            out.writeShort(name);
+            out.writeShort(desc);
+            out.writeShort(1);
+            out.writeShort(codeAttr);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code.bytes, 0, code.length);
+            out.writeShort(0);                  // exception table
+            out.writeShort(0);                  // attributes
+        }
+    }
+
+    /**
+     * MethodBuilder emits accept(Object): load the registers into locals, run the instructions, store the registers back.
+     */
+    private static class MethodBuilder {
+        final Program program;
+        final ConstantPool pool;
+        final Code code = new Code();
+        final int count;            // number of instructions; label[count] is the exit
+        final int[] labels;
+        final Map<Integer,Integer> branches = new HashMap<Integer,Integer>();   // branch position -> target instruction
+
+        MethodBuilder(Program program, ConstantPool pool) {
+            this.program = program;
+            this.pool = pool;
+            this.count = program.code.length / Program.WIDTH;
+            this.labels = new int[count + 1];
+        }
+
+        Code build() {
+            code.op(ALOAD_1).op(CHECKCAST).u2(pool.classRef("[I")).op(ASTORE_1);
+            for (int r=0; r<Y2016D12.REGISTER_NAMES.length(); ++r) {
+                code.op(ALOAD_1);
+                push(r);
+                code.op(IALOAD);
+                store(r);
+            }
+
+            for (int i=0; i<count; ++i) {
+                labels[i] = code.length;
+                emitFused(i);
+                emitPlain(i);
+            }
+
+            labels[count] = code.length;
+            for (int r=0; r<Y2016D12.REGISTER_NAMES.length(); ++r) {
+                code.op(ALOAD_1);
+                push(r);
+                load(r);
+                code.op(IASTORE);
+            }
+            code.op(RETURN);
+
+            for (Map.Entry<Integer,Integer> branch : branches.entrySet()) {
+                code.patch(branch.getKey(), labels[branch.getValue()]);
+            }
+
+            return code;
+        }
+
+        /** Emit the guarded fast path of a superinstruction, if there is one at instruction i. */
+        void emitFused(int i) {
+            int[] ops = program.code;
+            int pc = i * Program.WIDTH;
+            int[] guards = new int[2];
+            int guardCount = 0;
+
+            switch (ops[pc]) {
+            case Program.ADD:   // registers[x] += registers[y], registers[y] = 0
+                load(ops[pc + 2]);
+                guards[guardCount++] = branch(IFLE);
+                load(ops[pc + 1]);
+                load(ops[pc + 2]);
+                code.op(IADD);
+                store(ops[pc + 1]);
+                zero(ops[pc + 2]);
+                break;
+
+            case Program.ZERO:
+                load(ops[pc + 1]);
+                guards[guardCount++] = branch(IFLE);
+                zero(ops[pc + 1]);
+                break;
+
+            case Program.MUL_VAL:
+            case Program.MUL_REG: {
+                int dst = ops[pc + Program.WIDTH + 1];
+                int outer = program.base[pc + 4*Program.WIDTH + 1];
+
+                pushOperand(ops[pc], ops[pc + 1]);
+                guards[guardCount++] = branch(IFLE);
+                load(outer);
+                guards[guardCount++] = branch(IFLE);
+                load(dst);
+                pushOperand(ops[pc], ops[pc + 1]);
+                load(outer);
+                code.op(IMUL).op(IADD);
+                store(dst);
+                zero(ops[pc + 2]);
+                zero(outer);
+                break;
+            }
+
+            default:
+                return;
+            }
+
+            jump(GOTO, i + Program.FUSED_LENGTHS[ops[pc] - Program.ADD]);
+            for (int g=0; g<guardCount; ++g) {
+                code.patch(guards[g], code.length);
+            }
+        }
+
+        /** Emit the plain instruction i. */
+        void emitPlain(int i) {
+            int[] ops = program.base;
+            int pc = i * Program.WIDTH;
+
+            switch (ops[pc]) {
+            case Program.CPY_VAL:
+                push(ops[pc + 1]);
+                store(ops[pc + 2]);
+                break;
+
+            case Program.CPY_REG:
+                load(ops[pc + 1]);
+                store(ops[pc + 2]);
+                break;
+
+            case Program.INC:
+            case Program.DEC:
+                code.op(IINC).u1(FIRST_REGISTER_LOCAL + ops[pc + 1]).u1((ops[pc] == Program.INC) ? 1 : -1);
+                break;
+
+            case Program.JNZ:
+                load(ops[pc + 1]);
+                jump(IFNE, i + ops[pc + 2] / Program.WIDTH);
+                break;
+
+            case Program.JMP:
+                jump(GOTO, i + ops[pc + 2] / Program.WIDTH);
+                break;
+
+            default:
+                break;
+            }
+        }
+
+        void pushOperand(int op, int operand) {
+            if (op == Program.MUL_VAL) {
+                push(operand);
+            } else {
+                load(operand);
+            }
+        }
+
+        void load(int register) {
+            code.op(ILOAD).u1(FIRST_REGISTER_LOCAL + register);
+        }
+
+        void store(int register) {
+            code.op(ISTORE).u1(FIRST_REGISTER_LOCAL + register);
+        }
+
+        void zero(int register) {
+            code.op(ICONST_0);
+            store(register);
+        }
+
+        void push(int value) {
+            if ((value >= -1) && (value <= 5)) {
+                code.op(ICONST_0 + value);
+            } else if ((value >= Byte.MIN_VALUE) && (value <= Byte.MAX_VALUE)) {
+                code.op(BIPUSH).u1(value);
+            } else if ((value >= Short.MIN_VALUE) && (value <= Short.MAX_VALUE)) {
+                code.op(SIPUSH).u2(value);
+            } else {
+                int index = pool.integer(value);
+                if (index < 256) {
+                    code.op(LDC).u1(index);
+                } else {
+                    code.op(LDC_W).u2(index);
+                }
+            }
+        }
+
+        /** Emit a branch to an instruction; targets outside the program go to the exit. */
+        void jump(int opcode, int target) {
+            branches.put(branch(opcode), ((target < 0) || (target > count)) ? count : target);
+        }
+
+        /** Emit a branch with its offset left to be patched, and return its position. */
+        int branch(int opcode) {
+            int position = code.length;
+            code.op(opcode).u2(0);
+            return position;
+        }
+    }
+
+    /**
+     * Code is a growable bytecode buffer whose branch offsets can be patched once the targets are known.
+     */
+    private static class Code {
+        byte[] bytes = new byte[256];
+        int length;
+
+        Code op(int opcode) {
+            return u1(opcode);
+        }
+
+        Code u1(int value) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * length);
+            }
+
+            bytes[length++] = (byte) value;
+            return this;
+        }
+
+        Code u2(int value) {
+            return u1(value >> 8).u1(value);
+        }
+
+        void patch(int branch, int target) {
+            int offset = target - branch;
+            if ((offset < Short.MIN_VALUE) || (offset > Short.MAX_VALUE)) {
+                throw new IllegalStateException("program is too large to compile: branch offset " + offset);
+            }
+
+            bytes[branch + 1] = (byte) (offset >> 8);
+            bytes[branch + 2] = (byte) offset;
+        }
+    }
+
+    /**
+     * ConstantPool hands out (de-duplicated) constant pool indices and accumulates the encoded entries.
+     */
+    private static class ConstantPool {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        final Map<String,Integer> indices = new HashMap<String,Integer>();
+        int count = 1;      // entry 0 is unused
+
+        int utf8(String s) {
+            Integer index = indices.get("Utf8:" + s);
+            if (index != null) {
+                return index;
+            }
+
+            try {
+                out.writeByte(1);
+                out.writeUTF(s);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return add("Utf8:" + s);
+        }
+
+        int integer(int value) {
+            Integer index = indices.get("Integer:" + value);
+            if (index != null) {
+                return index;
+            }
+
+            write(3, value >>> 16, value & 0xffff);
+            return add("Integer:" + value);
+        }
+
+        int classRef(String name) {
+            Integer index = indices.get("Class:" + name);
+            if (index != null) {
+                return index;
+            }
+
+            int nameIndex = utf8(name);
+            write(7, nameIndex);
+            return add("Class:" + name);
+        }
+
+        int methodRef(String owner, String name, String desc) {
+            String key = String.format("Methodref:%s.%s%s", owner, name, desc);
+            Integer index = indices.get(key);
+            if (index != null) {
+                return index;
+            }
+
+            int ownerIndex = classRef(owner);
+            int nameIndex = utf8(name);
+            int descIndex = utf8(desc);
+            write(12, nameIndex, descIndex);
+            int nameAndType = add(String.format("NameAndType:%s%s", name, desc));
+            write(10, ownerIndex, nameAndType);
+            return add(key);
+        }
+
+        byte[] toByteArray() {
+            return bytes.toByteArray();
+        }
+
+        void write(int tag, int... shorts) {
+            try {
+                out.writeByte(tag);
+                for (int s : shorts) {
+                    out.writeShort(s);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        int add(String key) {
+            indices.put(key, count);
+            return count++;
+        }
+    }
+}
@@ -2,9 +2,17 @@ package com.verde.advent.y2016;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
 import com.verde.advent.AdventUtils;
@@ -89,25 +97,158 @@ public class Y2016D09 {
         return sb.toString();
     }
 
-    public static long decompressedLength(String s, boolean decompressInnerMarkers) {
+    public static long decompressedLength(CharSequence s, boolean decompressInnerMarkers) {
+        return decompressedLength(s, 0, s.length(), decompressInnerMarkers);
+    }
+
+    /**
+     * Compute the decompressed length of s[from, to) in a single pass, without building any intermediate strings.
+     * <p>
+     * Every character is weighted by the product of the repeat counts of the markers whose data covers it. 
+     * Those markers are kept as a stack of (data end, weight) pairs that is pushed when a marker is parsed and 
+     * popped when the scan passes the end of its data. Version one never nests, so its markers are counted directly.
+     */
+    static long decompressedLength(CharSequence s, int from, int to, boolean decompressInnerMarkers) {
+        int[] spec = new int[2];
+        int[] ends = new int[8];
+        long[] weights = new long[8];
+        int depth = 0;
+        
+        long weight = 1;
         long len = 0;
-        for (AtomicInteger i = new AtomicInteger(0); i.get() < s.length(); ) {
-            char c = s.charAt(i.get());
+        for (int i=from; i<to; ) {
+            // Leave the data of any markers that end here
+            while ((depth > 0) && (i >= ends[depth-1])) {
+                --depth;
+                weight = (depth > 0) ? weights[depth-1] : 1;
+            }
             
+            char c = s.charAt(i);
             if (c == '(') {
-                len += decompressedMarkerLength(s, i, decompressInnerMarkers);
+                int dataStart = parseMarker(s, i, spec);
+                int dataEnd = dataStart + spec[0];
+                if (dataEnd > ((depth > 0) ? ends[depth-1] : to)) {
+                    throw new IllegalStateException("marker data runs past the end of its span at index " + i);
+                }
+                
+                if (!decompressInnerMarkers) {
+                    len = Math.addExact(len, (long) spec[0] * spec[1]);
+                    i = dataEnd;
+                    continue;
+                }
+                
+                if (depth == ends.length) {
+                    ends = Arrays.copyOf(ends, 2 * depth);
+                    weights = Arrays.copyOf(weights, 2 * depth);
+                }
+                
+                weight = Math.multiplyExact(weight, spec[1]);
+                ends[depth] = dataEnd;
+                weights[depth] = weight;
+                ++depth;
+                i = dataStart;
             } else {
                 if (!Character.isWhitespace(c)) {
-                    ++len;
+                    len = Math.addExact(len, weight);
                 }
                 
-                i.incrementAndGet();
+                ++i;
             }
         }
         
         return len;
     }
 
+    /**
+     * Compute the decompressed length on the common fork-join pool. Top-level markers (and the literal text between them)
+     * split the input into segments whose lengths are independent, so the segments are grouped into chunks of roughly
+     * equal compressed size, measured in parallel, and summed.
+     * <p>
+     * The compressed input is a CharSequence indexed by int, so it must fit in memory and be under 2^31 characters; 
+     * only the decompressed length may be larger. A bigger archive would need long offsets over a memory-mapped file.
+     * 
+     * @throws ArithmeticException if the length overflows a long
+     */
+    public static long decompressedLengthParallel(CharSequence s, boolean decompressInnerMarkers) {
+        return decompressedLengthParallel(s, decompressInnerMarkers, LengthTask.THRESHOLD);
+    }
+    
+    static long decompressedLengthParallel(CharSequence s, boolean decompressInnerMarkers, int threshold) {
+        int[] boundaries = findTopLevelBoundaries(s);
+        return ForkJoinPool.commonPool().invoke(new LengthTask(s, boundaries, 0, boundaries.length - 1, decompressInnerMarkers, threshold));
+    }
+    
+    /**
+     * Return the start index of every top-level segment (a marker plus its data, or a run of literal text), 
+     * followed by the length of s.
+     */
+    static int[] findTopLevelBoundaries(CharSequence s) {
+        int[] spec = new int[2];
+        int[] boundaries = new int[64];
+        int count = 0;
+        
+        for (int i=0; i<s.length(); ) {
+            if (count + 1 >= boundaries.length) {
+                boundaries = Arrays.copyOf(boundaries, 2 * boundaries.length);
+            }
+            boundaries[count++] = i;
+            
+            if (s.charAt(i) == '(') {
+                i = parseMarker(s, i, spec) + spec[0];
+            } else {
+                while ((i < s.length()) && (s.charAt(i) != '(')) {
+                    ++i;
+                }
+            }
+        }
+        
+        boundaries[count++] = s.length();
+        return Arrays.copyOf(boundaries, count);
+    }
+    
+    /**
+     * LengthTask measures the segments [lo, hi) of the top-level boundaries, 
+     * splitting at the boundary nearest the middle until a chunk is small enough to scan directly.
+     */
+    static class LengthTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+        static final int THRESHOLD = 1 << 16;
+        
+        final CharSequence s;
+        final int[] boundaries;
+        final int lo, hi;
+        final boolean decompressInnerMarkers;
+        final int threshold;
+        
+        LengthTask(CharSequence s, int[] boundaries, int lo, int hi, boolean decompressInnerMarkers, int threshold) {
+            this.s = s;
+            this.boundaries = boundaries;
+            this.lo = lo;
+            this.hi = hi;
+            this.decompressInnerMarkers = decompressInnerMarkers;
+            this.threshold = threshold;
+        }
+        
+        @Override
+        protected Long compute() {
+            if ((hi - lo <= 1) || (boundaries[hi] - boundaries[lo] <= threshold)) {
+                return decompressedLength(s, boundaries[lo], boundaries[hi], decompressInnerMarkers);
+            }
+            
+            // Split at the segment boundary closest to the middle of the chunk
+            int middle = Arrays.binarySearch(boundaries, lo + 1, hi, boundaries[lo] + (boundaries[hi] - boundaries[lo]) / 2);
+            if (middle < 0) {
+                middle = Math.min(Math.max(-middle - 1, lo + 1), hi - 1);
+            }
+            
+            LengthTask left = new LengthTask(s, boundaries, lo, middle, decompressInnerMarkers, threshold);
+            LengthTask right = new LengthTask(s, boundaries, middle, hi, decompressInnerMarkers, threshold);
+            left.fork();
+            long rightLen = right.compute();
+            return Math.addExact(left.join(), rightLen);
+        }
+    }
+
     private static DecompressedMarker decompressMarker(String s, AtomicInteger index, boolean decompressInnerMarkers) {
         int i = index.get();
         int end = s.indexOf(')', i);
@@ -131,47 +272,300 @@ public class Y2016D09 {
         i += len;
         index.set(i);
         
-        // If we're on another marker and we're decompressing them, then recurse
-        if (!copy.isEmpty() && (copy.charAt(0) == '(') && decompressInnerMarkers) {
-          String decompressed = decompress(copy, decompressInnerMarkers);
-          return new DecompressedMarker(decompressed, count);
+        // In version two, any markers within the data are decompressed too, wherever they are in it
+        if (decompressInnerMarkers) {
+            String decompressed = decompress(copy, decompressInnerMarkers);
+            return new DecompressedMarker(decompressed, count);
         } else {
             return new DecompressedMarker(copy, count);
         }
     }
     
     
-    private static long decompressedMarkerLength(String s, AtomicInteger index, boolean decompressInnerMarkers) {
-        int i = index.get();
-        int end = s.indexOf(')', i);
-        if (end == -1) {
-            throw new IllegalStateException("missing ) starting at index " + i);
+    /**
+     * DecompressingReader streams the decompressed form of its input without ever materialising it, 
+     * so even a version two expansion many gigabytes long can be hashed, counted or written out.
+     * <p>
+     * It keeps a stack of frames, one per marker being expanded, each holding the span of compressed input the 
+     * marker repeats, the read position within it, and how many more repeats remain. Memory is proportional to 
+     * the marker nesting depth, not the output.
+     */
+    public static class DecompressingReader extends Reader {
+        final CharSequence s;
+        final boolean decompressInnerMarkers;
+        final int[] spec = new int[2];
+        
+        // The frame stack
+        int depth;
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int[] positions = new int[8];
+        long[] remaining = new long[8];
+        boolean[] raw = new boolean[8];     // marker data that is copied as-is (version one)
+        
+        public DecompressingReader(CharSequence s, boolean decompressInnerMarkers) {
+            this.s = s;
+            this.decompressInnerMarkers = decompressInnerMarkers;
+            push(0, s.length(), 1, false);
         }
         
-        String spec = s.substring(i + 1, end);
-        String[] parts = spec.split("x");
-        if (parts.length != 2) {
-            throw new IllegalStateException("incorrect compression spec: " + spec);
+        @Override
+        public int read() {
+            while (depth > 0) {
+                int top = depth - 1;
+                
+                // At the end of a span, either go around again or go back to the enclosing span
+                if (positions[top] >= ends[top]) {
+                    if (--remaining[top] > 0) {
+                        positions[top] = starts[top];
+                    } else {
+                        --depth;
+                    }
+                    continue;
+                }
+                
+                char c = s.charAt(positions[top]);
+                if (raw[top]) {
+                    ++positions[top];
+                    return c;
+                }
+                
+                if (c == '(') {
+                    int dataStart = parseMarker(s, positions[top], spec);
+                    int dataEnd = dataStart + spec[0];
+                    if (dataEnd > ends[top]) {
+                        throw new IllegalStateException("marker data runs past the end of its span at index " + positions[top]);
+                    }
+                    
+                    // Skip past the data in this span; the new frame will emit it
+                    positions[top] = dataEnd;
+                    if ((spec[0] > 0) && (spec[1] > 0)) {
+                        push(dataStart, dataEnd, spec[1], !decompressInnerMarkers);
+                    }
+                    continue;
+                }
+                
+                ++positions[top];
+                if (!Character.isWhitespace(c)) {
+                    return c;
+                }
+            }
+            
+            return -1;
         }
         
-        // Process the marker
-        i = end + 1;
-        int len = AdventUtils.toInt(parts[0]);
-        int count = AdventUtils.toInt(parts[1]);
-        String copy = s.substring(i, i+len);
+        @Override
+        public int read(char[] cbuf, int off, int len) {
+            int count = 0;
+            for (int c; (count < len) && ((c = read()) != -1); ++count) {
+                cbuf[off + count] = (char) c;
+            }
+            
+            return ((count == 0) && (len > 0)) ? -1 : count;
+        }
+        
+        @Override
+        public void close() {
+            depth = 0;
+        }
+        
+        void push(int start, int end, long repeats, boolean isRaw) {
+            if (depth == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * depth);
+                ends = Arrays.copyOf(ends, 2 * depth);
+                positions = Arrays.copyOf(positions, 2 * depth);
+                remaining = Arrays.copyOf(remaining, 2 * depth);
+                raw = Arrays.copyOf(raw, 2 * depth);
+            }
+            
+            starts[depth] = start;
+            ends[depth] = end;
+            positions[depth] = start;
+            remaining[depth] = repeats;
+            raw[depth] = isRaw;
+            ++depth;
+        }
+    }
     
-        // Move past the marker
-        i += len;
-        index.set(i);
+    /**
+     * DecompressingInputStream is the byte view of a {@link DecompressingReader} (the format is plain ASCII).
+     */
+    public static class DecompressingInputStream extends InputStream {
+        final DecompressingReader reader;
         
-        // If we're on another marker and we're decompressing them, then recurse
-        if (!copy.isEmpty() && (copy.charAt(0) == '(') && decompressInnerMarkers) {
-          return decompressedLength(copy, decompressInnerMarkers) * count;
-        } else {
-            return copy.length() * count;
+        public DecompressingInputStream(CharSequence s, boolean decompressInnerMarkers) {
+            this.reader = new DecompressingReader(s, decompressInnerMarkers);
+        }
+        
+        @Override
+        public int read() {
+            return reader.read();
+        }
+        
+        @Override
+        public void close() {
+            reader.close();
+        }
+    }
+    
+    /**
+     * DecompressedView gives random access into a decompressed output that is far too large to build, 
+     * by indexing the compressed input instead of expanding it.
+     * <p>
+     * The index is a tree of spans: each span is the list of pieces (runs of literal text, or markers) in a 
+     * stretch of compressed input, together with the prefix sums of their expanded lengths. A marker piece 
+     * points to the span of its data (version two) or treats its data as literal text (version one). Finding 
+     * the character at an expanded offset is then a binary search per level, i.e. O(depth * log n).
+     */
+    public static class DecompressedView {
+        final CharSequence s;
+        final Span root;
+        
+        public DecompressedView(CharSequence s, boolean decompressInnerMarkers) {
+            this.s = s;
+            this.root = new Span(s, 0, s.length(), decompressInnerMarkers);
+        }
+        
+        public long length() {
+            return root.length();
+        }
+        
+        public char charAt(long index) {
+            if ((index < 0) || (index >= length())) {
+                throw new IndexOutOfBoundsException(String.format("index %d is outside the decompressed length %d", index, length()));
+            }
+            
+            return root.charAt(s, index);
+        }
+        
+        public String subSequence(long start, long end) {
+            if ((start < 0) || (end > length()) || (start > end) || (end - start > Integer.MAX_VALUE)) {
+                throw new IndexOutOfBoundsException(String.format("[%d, %d) is not a valid slice of the decompressed length %d", start, end, length()));
+            }
+            
+            StringBuilder sb = new StringBuilder((int) (end - start));
+            for (long i=start; i<end; ++i) {
+                sb.append(root.charAt(s, i));
+            }
+            
+            return sb.toString();
+        }
+    }
+    
+    /**
+     * Span is one node of a {@link DecompressedView}: the pieces of s[from, to) and where each one starts in the output.
+     * Piece i covers s[starts[i], ends[i]) repeated repeats[i] times, expanding children[i] if it is not null.
+     */
+    static class Span {
+        int count;
+        int[] starts = new int[4];
+        int[] ends = new int[4];
+        long[] repeats = new long[4];
+        Span[] children = new Span[4];
+        long[] offsets = new long[5];   // offsets[i] is where piece i starts in the output; offsets[count] is the length
+        
+        Span(CharSequence s, int from, int to, boolean decompressInnerMarkers) {
+            int[] spec = new int[2];
+            
+            for (int i=from; i<to; ) {
+                char c = s.charAt(i);
+                
+                if (c == '(') {
+                    int dataStart = parseMarker(s, i, spec);
+                    int dataEnd = dataStart + spec[0];
+                    if (dataEnd > to) {
+                        throw new IllegalStateException("marker data runs past the end of its span at index " + i);
+                    }
+                    
+                    add(dataStart, dataEnd, spec[1], decompressInnerMarkers ? new Span(s, dataStart, dataEnd, true) : null);
+                    i = dataEnd;
+                } else if (Character.isWhitespace(c)) {
+                    ++i;
+                } else {
+                    int start = i;
+                    while ((i < to) && (s.charAt(i) != '(') && !Character.isWhitespace(s.charAt(i))) {
+                        ++i;
+                    }
+                    
+                    add(start, i, 1, null);
+                }
+            }
+        }
+        
+        long length() {
+            return offsets[count];
+        }
+        
+        char charAt(CharSequence s, long index) {
+            // Find the last piece starting at or before the index
+            int piece = Arrays.binarySearch(offsets, 0, count, index);
+            if (piece < 0) {
+                piece = -piece - 2;
+            }
+            
+            long unitLength = (children[piece] != null) ? children[piece].length() : ends[piece] - starts[piece];
+            long local = (index - offsets[piece]) % unitLength;
+            
+            return (children[piece] != null) 
+                    ? children[piece].charAt(s, local) 
+                    : s.charAt(starts[piece] + (int) local);
+        }
+        
+        void add(int start, int end, long repeat, Span child) {
+            // Pieces that expand to nothing would only confuse the offset search
+            long unitLength = (child != null) ? child.length() : end - start;
+            if ((unitLength == 0) || (repeat == 0)) {
+                return;
+            }
+            
+            if (count == starts.length) {
+                starts = Arrays.copyOf(starts, 2 * count);
+                ends = Arrays.copyOf(ends, 2 * count);
+                repeats = Arrays.copyOf(repeats, 2 * count);
+                children = Arrays.copyOf(children, 2 * count);
+                offsets = Arrays.copyOf(offsets, 2 * count + 1);
+            }
+            
+            starts[count] = start;
+            ends[count] = end;
+            repeats[count] = repeat;
+            children[count] = child;
+            offsets[count + 1] = Math.addExact(offsets[count], Math.multiplyExact(unitLength, repeat));
+            ++count;
         }
     }
     
+    /**
+     * Parse the marker that starts at index i (which must be a '(') in place, storing the data length 
+     * and repeat count in spec[0] and spec[1].
+     * 
+     * @return the index just past the closing ')', where the marker's data starts
+     */
+    static int parseMarker(CharSequence s, int i, int[] spec) {
+        int part = 0;
+        spec[0] = spec[1] = 0;
+        
+        boolean seenDigit = false;
+        for (int j=i+1; j<s.length(); ++j) {
+            char c = s.charAt(j);
+            
+            if ((c >= '0') && (c <= '9')) {
+                spec[part] = Math.addExact(Math.multiplyExact(spec[part], 10), c - '0');
+                seenDigit = true;
+            } else if ((c == 'x') && (part == 0) && seenDigit) {
+                part = 1;
+                seenDigit = false;
+            } else if ((c == ')') && (part == 1) && seenDigit) {
+                return j + 1;
+            } else if (c == ')') {
+                throw new IllegalStateException("incorrect compression spec: " + s.subSequence(i + 1, j));
+            } else if (!Character.isWhitespace(c)) {
+                throw new IllegalStateException("incorrect compression spec starting at index " + i);
+            }
+        }
+        
+        throw new IllegalStateException("missing ) starting at index " + i);
+    }
     
     @Test
     public void testDecompressOne() {
@@ -219,6 +613,9 @@ public class Y2016D09 {
         for (int i=0; i<inputs.length; ++i) {
             assertEquals("decompress incorrect", expected[i], decompress(inputs[i], true));
         }
+        
+        // A marker part way through another's data
+        assertEquals("decompress incorrect for a mid-data marker", "ABBBCABBBC", decompress("(8x2)A(1x3)BC", true));
 
         String longSpec = "(27x12)(20x12)(13x14)(7x10)(1x12)A";
         String actual = decompress(longSpec, true);
@@ -229,14 +626,135 @@ public class Y2016D09 {
         actual = decompress(longSpec, true);
         System.out.println(actual);
         assertEquals("longSpec2 length incorrect", 445, actual.length());
+        assertEquals("longSpec2 decompressedLength() incorrect", 445, decompressedLength(longSpec, true)); 
+    }
+    
+    @Test
+    public void testDecompressedLength() {
+        String[] inputs = {
+                "ADVENT",
+                "A(1x5)BC",
+                "(3x3)XYZ",
+                "A(2x2)BCD(2x2)EFG",
+                "(6x1)(1x3)A",
+                "X(8x2)(3x3)ABCY",
+                "(25x3)(3x3)ABC(2x3)XY(5x2)PQRSTX(18x9)(3x2)TWO(5x7)SEVEN",
+                "A B\tC (2x2)DE ",
+                "(8x2)A(1x3)BC",
+        };
+        
+        for (boolean v2 : new boolean[] { false, true }) {
+            for (int i=0; i<inputs.length; ++i) {
+                assertEquals("decompressedLength() incorrect", decompress(inputs[i], v2).length(), decompressedLength(inputs[i], v2));
+            }
+        }
+        
+        assertEquals("star one decompressedLength() is incorrect", 102239, decompressedLength(STAR_INPUTS.get(0), false));
+    }
+    
+    @Test
+    public void testDecompressingReader() throws IOException {
+        String[] inputs = {
+                "ADVENT",
+                "A(1x5)BC",
+                "(3x3)XYZ",
+                "A(2x2)BCD(2x2)EFG",
+                "(6x1)(1x3)A",
+                "X(8x2)(3x3)ABCY",
+                "(25x3)(3x3)ABC(2x3)XY(5x2)PQRSTX(18x9)(3x2)TWO(5x7)SEVEN",
+        };
+        
+        for (boolean v2 : new boolean[] { false, true }) {
+            for (int i=0; i<inputs.length; ++i) {
+                try (Reader reader = new DecompressingReader(inputs[i], v2)) {
+                    assertEquals("DecompressingReader incorrect", decompress(inputs[i], v2), IOUtils.toString(reader));
+                }
+                try (InputStream is = new DecompressingInputStream(inputs[i], v2)) {
+                    assertEquals("DecompressingInputStream incorrect", decompress(inputs[i], v2), IOUtils.toString(is, StandardCharsets.US_ASCII));
+                }
+            }
+        }
+        
+        // Count without holding the output
+        long count = 0;
+        try (Reader reader = new DecompressingReader("(27x12)(20x12)(13x14)(7x10)(1x12)A", true)) {
+            while (reader.read() != -1) {
+                ++count;
+            }
+        }
+        assertEquals("streamed longSpec length incorrect", 241920, count);
+    }
+    
+    @Test
+    public void testDecompressedLengthParallel() {
+        String[] inputs = {
+                "ADVENT",
+                "X(8x2)(3x3)ABCY",
+                "A(2x2)BCD(2x2)EFG(6x1)(1x3)A",
+                "(25x3)(3x3)ABC(2x3)XY(5x2)PQRSTX(18x9)(3x2)TWO(5x7)SEVEN",
+                STAR_INPUTS.get(0),
+        };
+        
+        for (boolean v2 : new boolean[] { false, true }) {
+            for (int i=0; i<inputs.length; ++i) {
+                long expected = decompressedLength(inputs[i], v2);
+                assertEquals("decompressedLengthParallel() incorrect", expected, decompressedLengthParallel(inputs[i], v2));
+                assertEquals("decompressedLengthParallel() with tiny chunks incorrect", expected, decompressedLengthParallel(inputs[i], v2, 1));
+            }
+        }
+    }
+    
+    @Test
+    public void testDecompressedView() throws IOException {
+        String[] inputs = {
+                "ADVENT",
+                "A(1x5)BC",
+                "(3x3)XYZ",
+                "A(2x2)BCD(2x2)EFG",
+                "(6x1)(1x3)A",
+                "X(8x2)(3x3)ABCY",
+                "(0x3)AB(2x0)CD E",
+                "(25x3)(3x3)ABC(2x3)XY(5x2)PQRSTX(18x9)(3x2)TWO(5x7)SEVEN",
+        };
+        
+        for (boolean v2 : new boolean[] { false, true }) {
+            for (int i=0; i<inputs.length; ++i) {
+                String expected = decompress(inputs[i], v2);
+                DecompressedView view = new DecompressedView(inputs[i], v2);
+                
+                assertEquals("DecompressedView.length() incorrect", expected.length(), view.length());
+                assertEquals("DecompressedView.subSequence() incorrect", expected, view.subSequence(0, view.length()));
+                for (int j=0; j<expected.length(); ++j) {
+                    assertEquals("DecompressedView.charAt() incorrect", expected.charAt(j), view.charAt(j));
+                }
+            }
+        }
+        
+        // Spot check the huge star two expansion against the start of the stream
+        DecompressedView view = new DecompressedView(STAR_INPUTS.get(0), true);
+        assertEquals("star two DecompressedView.length() is incorrect", 10780403063L, view.length());
+        try (Reader reader = new DecompressingReader(STAR_INPUTS.get(0), true)) {
+            char[] prefix = new char[5000];
+            IOUtils.readFully(reader, prefix);
+            assertEquals("star two DecompressedView.subSequence() is incorrect", new String(prefix), view.subSequence(0, prefix.length));
+        }
+    }
+    
+    @Test(expected = ArithmeticException.class)
+    public void testDecompressedLengthOverflow() {
+        decompressedLengthParallel("(28x999999999)(14x999999999)(1x999999999)A", true);
     }
     
     @Test
-    public void testStarOne() {
+    public void testStarOne() throws IOException {
         String[] inputs = STAR_INPUTS.toArray(new String[STAR_INPUTS.size()]);
         String actual = decompress(inputs[0], false);
         System.out.printf("star one decompressed length: %d\n", actual.length());
         assertEquals("star one decompress() is incorrect", 102239, actual.length());
+        
+        try (InputStream is = new DecompressingInputStream(inputs[0], false)) {
+            assertEquals("star one DecompressingInputStream is incorrect", actual, IOUtils.toString(is, StandardCharsets.US_ASCII));
+        }
     }
 
     @Test
@@ -1,15 +1,22 @@
 package com.verde.advent.y2016;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Test;
 
-import com.verde.advent.AdventUtils;
-
 /**
  * --- Day 12: Leonardo's Monorail ---
  * You finally reach the top floor of this building: a garden with a slanted glass ceiling. Looks like there are no more stars to be had.
@@ -58,6 +65,514 @@ import com.verde.advent.AdventUtils;
  * @author bumpverde
  */
 public class Y2016D12 {
+    public static final String REGISTER_NAMES = "abcd";
+    
+    /**
+     * Execution is the outcome of one run of a {@link Program}: the final registers, and how many instructions were executed.
+     * Steps count every instruction a superinstruction stands in for, so they match between optimised and plain runs.
+     */
+    public static class Execution {
+        public final int[] registers;
+        public long steps;
+        public long elided;     // steps covered by superinstructions rather than executed one by one
+        
+        public Execution(int[] registers) {
+            this.registers = registers;
+        }
+    }
+    
+    /**
+     * Profile records how often each instruction of a {@link Program} was dispatched, and how often each jnz jumped.
+     * A superinstruction that covers its loop counts as a single dispatch of its first instruction.
+     */
+    public static class Profile {
+        final String[] source;
+        final long[] counts;
+        final long[] taken;
+        final long[] notTaken;
+        Execution execution;
+        
+        Profile(String[] source) {
+            this.source = source;
+            this.counts = new long[source.length];
+            this.taken = new long[source.length];
+            this.notTaken = new long[source.length];
+        }
+        
+        public long getCount(int instruction) {
+            return counts[instruction];
+        }
+        
+        public long getTaken(int instruction) {
+            return taken[instruction];
+        }
+        
+        public long getNotTaken(int instruction) {
+            return notTaken[instruction];
+        }
+        
+        public Execution getExecution() {
+            return execution;
+        }
+        
+        /**
+         * Return the loops (backward jumps) that were entered, hottest first.
+         * A loop's dispatches include those of any loops nested inside it.
+         */
+        public List<Loop> getHotLoops() {
+            List<Loop> loops = new ArrayList<Loop>();
+            
+            for (int i=0; i<source.length; ++i) {
+                int offset = backwardOffset(i);
+                if ((offset < 0) && ((taken[i] + notTaken[i]) > 0)) {
+                    Loop loop = new Loop(Math.max(0, i + offset), i, taken[i]);
+                    for (int j=loop.first; j<=loop.last; ++j) {
+                        loop.dispatches += counts[j];
+                    }
+                    loops.add(loop);
+                }
+            }
+            
+            loops.sort(Comparator.comparingLong((Loop loop) -> loop.dispatches).reversed());
+            return loops;
+        }
+        
+        int backwardOffset(int instruction) {
+            String[] parts = StringUtils.split(source[instruction], " ");
+            return ((parts.length == 3) && "jnz".equals(parts[0])) ? Math.min(0, Program.literal(parts[2], source[instruction])) : 0;
+        }
+        
+        /**
+         * Return the hot loops as a ranked, human readable report.
+         */
+        public String report() {
+            long total = 0;
+            for (long count : counts) {
+                total += count;
+            }
+            
+            StringBuilder sb = new StringBuilder();
+            sb.append(String.format("%d dispatches, %d steps\n", total, (execution != null) ? execution.steps : total));
+            
+            int rank = 0;
+            for (Loop loop : getHotLoops()) {
+                sb.append(String.format("%2d. lines %d-%d, %d iterations, %d dispatches (%.1f%%)\n",
+                        ++rank, loop.first, loop.last, loop.iterations, loop.dispatches, (total > 0) ? 100.0 * loop.dispatches / total : 0.0));
+                for (int i=loop.first; i<=loop.last; ++i) {
+                    String branch = ((taken[i] + notTaken[i]) > 0) ? String.format("  taken %d, not taken %d", taken[i], notTaken[i]) : "";
+                    sb.append(String.format("      %3d  %-12s %12d%s\n", i, source[i], counts[i], branch));
+                }
+            }
+            
+            return sb.toString();
+        }
+    }
+    
+    /**
+     * Loop is a range of instructions closed by a backward jnz.
+     */
+    public static class Loop {
+        public final int first;
+        public final int last;
+        public final long iterations;   // times the closing jnz jumped back
+        public long dispatches;
+        
+        Loop(int first, int last, long iterations) {
+            this.first = first;
+            this.last = last;
+            this.iterations = iterations;
+        }
+    }
+    
+    /**
+     * Program is assembunny compiled to an int[] of (opcode, x, y) triples. Literal operands are resolved at compile time 
+     * and register operands become indices into an int[4] register file, so running it never touches a String or a Map.
+     * <p>
+     * {@link #optimise()} layers superinstructions over the loops that assembunny uses for arithmetic. A superinstruction
+     * replaces only the first instruction of its loop (so jumps into the middle of the loop still work), and only takes 
+     * effect when its loop counters are positive; otherwise the original instruction runs.
+     */
+    public static class Program {
+        static final int WIDTH = 3;
+        
+        static final int NOP = 0;
+        static final int CPY_VAL = 1;   // registers[y] = x
+        static final int CPY_REG = 2;   // registers[y] = registers[x]
+        static final int INC = 3;       // ++registers[x]
+        static final int DEC = 4;       // --registers[x]
+        static final int JNZ = 5;       // if (registers[x] != 0) pc += y
+        static final int JMP = 6;       // pc += y (a jnz on a non-zero literal)
+        
+        // Superinstructions
+        static final int ADD = 7;       // inc x, dec y, jnz y -2 (either order): registers[x] += registers[y], registers[y] = 0
+        static final int ZERO = 8;      // dec x, jnz x -1: registers[x] = 0
+        static final int MUL_VAL = 9;   // cpy x t, <ADD d t>, dec o, jnz o -5: registers[d] += x * registers[o], registers[t] = registers[o] = 0
+        static final int MUL_REG = 10;  // as MUL_VAL, with x a register
+        static final int[] FUSED_LENGTHS = { 3, 2, 6, 6 };
+        
+        final String[] source;
+        final int[] code;
+        final int[] base;   // the plain compiled code, that superinstructions fall back to
+        
+        Program(String[] source, int[] code) {
+            this(source, code, code);
+        }
+        
+        Program(String[] source, int[] code, int[] base) {
+            this.source = source;
+            this.code = code;
+            this.base = base;
+        }
+        
+        public static Program compile(String[] instructions) {
+            int[] code = new int[instructions.length * WIDTH];
+            
+            for (int i=0; i<instructions.length; ++i) {
+                String[] parts = StringUtils.split(instructions[i], " ");
+                int pc = i * WIDTH;
+                
+                switch (parts[0]) {
+                case "cpy":
+                    int src = register(parts[1]);
+                    code[pc] = (src >= 0) ? CPY_REG : CPY_VAL;
+                    code[pc + 1] = (src >= 0) ? src : literal(parts[1], instructions[i]);
+                    code[pc + 2] = target(parts[2], instructions[i]);
+                    break;
+                    
+                case "inc":
+                case "dec":
+                    code[pc] = "inc".equals(parts[0]) ? INC : DEC;
+                    code[pc + 1] = target(parts[1], instructions[i]);
+                    break;
+                    
+                case "jnz":     // jnz a 2
+                    int test = register(parts[1]);
+                    int offset = literal(parts[2], instructions[i]) * WIDTH;
+                    if (test >= 0) {
+                        code[pc] = JNZ;
+                        code[pc + 1] = test;
+                        code[pc + 2] = offset;
+                    } else if (literal(parts[1], instructions[i]) != 0) {
+                        code[pc] = JMP;
+                        code[pc + 2] = offset;
+                    }
+                    break;
+                    
+                default:
+                    break;
+                }
+            }
+            
+            return new Program(instructions, code);
+        }
+        
+        /**
+         * Return a copy of this program with its add, multiply and zeroing loops replaced by superinstructions.
+         */
+        public Program optimise() {
+            int[] fused = Arrays.copyOf(base, base.length);
+            
+            for (int pc=0; pc<base.length; pc+=WIDTH) {
+                if (isAddLoop(pc)) {
+                    boolean incFirst = (base[pc] == INC);
+                    fused[pc] = ADD;
+                    fused[pc + 1] = incFirst ? base[pc + 1] : base[pc + WIDTH + 1];
+                    fused[pc + 2] = incFirst ? base[pc + WIDTH + 1] : base[pc + 1];
+                } else if (isZeroLoop(pc)) {
+                    fused[pc] = ZERO;
+                }
+            }
+            
+            // Multiply loops are built around an add loop, so look for them once those are in place.
+            // The superinstruction keeps the cpy operands, and reads the rest from the loop's other instructions.
+            for (int pc=0; pc + 5*WIDTH < base.length; pc+=WIDTH) {
+                if (((base[pc] == CPY_VAL) || (base[pc] == CPY_REG)) && isMultiplyLoop(pc, fused)) {
+                    fused[pc] = (base[pc] == CPY_VAL) ? MUL_VAL : MUL_REG;
+                }
+            }
+            
+            return new Program(source, fused, base);
+        }
+        
+        boolean isAddLoop(int pc) {
+            if (pc + 2*WIDTH >= base.length) {
+                return false;
+            }
+            
+            int src = (base[pc] == DEC) ? base[pc + 1] : base[pc + WIDTH + 1];
+            int dst = (base[pc] == INC) ? base[pc + 1] : base[pc + WIDTH + 1];
+            return (((base[pc] == INC) && (base[pc + WIDTH] == DEC)) || ((base[pc] == DEC) && (base[pc + WIDTH] == INC)))
+                    && (src != dst)
+                    && isJnz(pc + 2*WIDTH, src, -2);
+        }
+        
+        boolean isZeroLoop(int pc) {
+            return (pc + WIDTH < base.length) && (base[pc] == DEC) && isJnz(pc + WIDTH, base[pc + 1], -1);
+        }
+        
+        boolean isMultiplyLoop(int pc, int[] fused) {
+            int src = base[pc + 1];
+            int tmp = base[pc + 2];
+            int dst = fused[pc + WIDTH + 1];
+            int outer = base[pc + 4*WIDTH + 1];
+            
+            return (fused[pc + WIDTH] == ADD) && (fused[pc + WIDTH + 2] == tmp)
+                    && (base[pc + 4*WIDTH] == DEC) && isJnz(pc + 5*WIDTH, outer, -5)
+                    && (outer != tmp) && (outer != dst)
+                    && ((base[pc] == CPY_VAL) || ((src != tmp) && (src != dst) && (src != outer)));
+        }
+        
+        boolean isJnz(int pc, int register, int offset) {
+            return (base[pc] == JNZ) && (base[pc + 1] == register) && (base[pc + 2] == offset * WIDTH);
+        }
+        
+        /**
+         * Run the program against the register file (a, b, c, d), which is updated in place.
+         * 
+         * @return the registers
+         */
+        public int[] run(int[] registers) {
+            return execute(registers).registers;
+        }
+        
+        /**
+         * Run the program against the register file (a, b, c, d), which is updated in place, counting the steps taken.
+         */
+        public Execution execute(int[] registers) {
+            int[] code = this.code;
+            int[] base = this.base;
+            long steps = 0;
+            long elided = 0;
+            
+            for (int pc=0; (pc >= 0) && (pc < code.length); ++steps) {
+                int op = code[pc];
+                
+                // A superinstruction either covers its whole loop, or falls back to the plain instruction it replaced
+                if (op >= ADD) {
+                    long covered = runFused(op, pc, registers);
+                    if (covered > 0) {
+                        steps += covered - 1;
+                        elided += covered;
+                        pc += FUSED_LENGTHS[op - ADD] * WIDTH;
+                        continue;
+                    }
+                    
+                    op = base[pc];
+                }
+                
+                switch (op) {
+                case CPY_VAL:
+                    registers[base[pc + 2]] = base[pc + 1];
+                    pc += WIDTH;
+                    break;
+                    
+                case CPY_REG:
+                    registers[base[pc + 2]] = registers[base[pc + 1]];
+                    pc += WIDTH;
+                    break;
+                    
+                case INC:
+                    ++registers[base[pc + 1]];
+                    pc += WIDTH;
+                    break;
+                    
+                case DEC:
+                    --registers[base[pc + 1]];
+                    pc += WIDTH;
+                    break;
+                    
+                case JNZ:
+                    pc += (registers[base[pc + 1]] != 0) ? base[pc + 2] : WIDTH;
+                    break;
+                    
+                case JMP:
+                    pc += base[pc + 2];
+                    break;
+                    
+                default:
+                    pc += WIDTH;
+                    break;
+                }
+            }
+            
+            Execution execution = new Execution(registers);
+            execution.steps = steps;
+            execution.elided = elided;
+            return execution;
+        }
+        
+        /**
+         * Run the program once for each initial register file, in parallel on the common fork-join pool.
+         *
+         * @see #executeAll(List, ForkJoinPool)
+         */
+        public List<Execution> executeAll(List<int[]> initialRegisters) {
+            return executeAll(initialRegisters, ForkJoinPool.commonPool());
+        }
+        
+        /**
+         * Run the program once for each initial register file, in parallel on the given pool. The compiled code is shared
+         * (it is never written once built), and each run works on its own copy of its initial registers.
+         *
+         * @return the executions, in the same order as the initial registers
+         */
+        public List<Execution> executeAll(List<int[]> initialRegisters, ForkJoinPool pool) {
+            // A parallel stream started from inside a pool's task runs in that pool
+            return pool.submit(() -> initialRegisters.parallelStream()
+                    .map(registers -> execute(registers.clone()))
+                    .collect(Collectors.toList()))
+                .join();
+        }
+        
+        /**
+         * Run the program as {@link #execute(int[])} does, recording a {@link Profile} as it goes.
+         * This is a separate copy of the interpreter loop, so that unprofiled runs pay nothing for it.
+         */
+        public Profile profile(int[] registers) {
+            Profile profile = new Profile(source);
+            long[] counts = profile.counts;
+            long[] taken = profile.taken;
+            long[] notTaken = profile.notTaken;
+            long steps = 0;
+            long elided = 0;
+            
+            for (int pc=0; (pc >= 0) && (pc < code.length); ++steps) {
+                int op = code[pc];
+                ++counts[pc / WIDTH];
+                
+                if (op >= ADD) {
+                    long covered = runFused(op, pc, registers);
+                    if (covered > 0) {
+                        steps += covered - 1;
+                        elided += covered;
+                        pc += FUSED_LENGTHS[op - ADD] * WIDTH;
+                        continue;
+                    }
+                    
+                    op = base[pc];
+                }
+                
+                switch (op) {
+                case CPY_VAL:
+                    registers[base[pc + 2]] = base[pc + 1];
+                    pc += WIDTH;
+                    break;
+                
+                case CPY_REG:
+                    registers[base[pc + 2]] = registers[base[pc + 1]];
+                    pc += WIDTH;
+                    break;
+                
+                case INC:
+                    ++registers[base[pc + 1]];
+                    pc += WIDTH;
+                    break;
+                
+                case DEC:
+                    --registers[base[pc + 1]];
+                    pc += WIDTH;
+                    break;
+                
+                case JNZ:
+                    if (registers[base[pc + 1]] != 0) {
+                        ++taken[pc / WIDTH];
+                        pc += base[pc + 2];
+                    } else {
+                        ++notTaken[pc / WIDTH];
+                        pc += WIDTH;
+                    }
+                    break;
+                
+                case JMP:
+                    ++taken[pc / WIDTH];
+                    pc += base[pc + 2];
+                    break;
+                
+                default:
+                    pc += WIDTH;
+                    break;
+                }
+            }
+            
+            profile.execution = new Execution(registers);
+            profile.execution.steps = steps;
+            profile.execution.elided = elided;
+            return profile;
+        }
+        
+        /**
+         * Run the superinstruction at pc if its loop counters are positive.
+         * 
+         * @return the number of plain instructions it stood in for, or 0 if it didn't run
+         */
+        long runFused(int op, int pc, int[] registers) {
+            switch (op) {
+            case ADD: {
+                int n = registers[code[pc + 2]];
+                if (n <= 0) {
+                    return 0;
+                }
+                
+                registers[code[pc + 1]] += n;
+                registers[code[pc + 2]] = 0;
+                return 3L * n;
+            }
+            
+            case ZERO: {
+                int n = registers[code[pc + 1]];
+                if (n <= 0) {
+                    return 0;
+                }
+                
+                registers[code[pc + 1]] = 0;
+                return 2L * n;
+            }
+            
+            case MUL_VAL:
+            case MUL_REG: {
+                int x = (op == MUL_VAL) ? code[pc + 1] : registers[code[pc + 1]];
+                int outer = base[pc + 4*WIDTH + 1];
+                int n = registers[outer];
+                if ((x <= 0) || (n <= 0)) {
+                    return 0;
+                }
+                
+                // Each outer pass is the cpy, x passes of the add loop, then the dec and jnz
+                registers[code[pc + WIDTH + 1]] += x * n;
+                registers[code[pc + 2]] = 0;
+                registers[outer] = 0;
+                return n * (3L * x + 3);
+            }
+            
+            default:
+                return 0;
+            }
+        }
+        
+        /** Return the register index for a reference, or -1 if it isn't a register. */
+        static int register(String ref) {
+            return (ref.length() == 1) ? REGISTER_NAMES.indexOf(ref.charAt(0)) : -1;
+        }
+        
+        /** Return the register an instruction writes to, which must be one of a to d. */
+        static int target(String ref, String instruction) {
+            int register = register(ref);
+            if (register < 0) {
+                throw new IllegalArgumentException(String.format("'%s' is not a register in '%s'", ref, instruction));
+            }
+            
+            return register;
+        }
+        
+        static int literal(String ref, String instruction) {
+            try {
+                return Integer.parseInt(ref);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException(String.format("'%s' is not a register or literal in '%s'", ref, instruction), e);
+            }
+        }
+    }
+    
     public static int getValue(Map<String,Integer> registers, String ref) {
         if (registers.containsKey(ref)) {
             return registers.get(ref);
@@ -73,75 +588,41 @@ public class Y2016D12 {
         
         return value;
     }
-
-    public static void adjustRegister(Map<String,Integer> registers, String ref, int delta) {
-        Integer val = registers.get(ref);
-        if (val == null) {
-           val = new Integer(0); 
+    
+    public static Map<String,Integer> toMap(int[] registers) {
+        Map<String,Integer> map = new HashMap<String,Integer>();
+        for (int i=0; i<REGISTER_NAMES.length(); ++i) {
+            map.put(REGISTER_NAMES.substring(i, i+1), registers[i]);
         }
         
-        val += delta;
-        registers.put(ref,  val);
+        return map;
     }
-
-    public static String getRegister(String ref) {
-        switch (ref) {
-        case "a":
-        case "b":
-        case "c":
-        case "d":
-            return ref;
-            
-        default:
-            System.out.printf("Unknown register reference '%s'\n", ref);
-            return ref;
+    
+    public static Map<String,Integer> process(String[] instructions, int cInitVal) {
+        return process(instructions, cInitVal, true);
+    }
+    
+    public static Map<String,Integer> process(String[] instructions, int cInitVal, boolean optimise) {
+        Program program = Program.compile(instructions);
+        if (optimise) {
+            program = program.optimise();
         }
+        
+        int[] registers = { 0, 0, cInitVal, 0 };
+        return toMap(program.run(registers));
     }
     
-    public static Map<String,Integer> process(String[] instructions, int cInitVal) {
-        // Set up the registers
-        Map<String,Integer> registers = new HashMap<String,Integer>();
-        registers.put("a", 0);
-        registers.put("b", 0);
-        registers.put("c", cInitVal);
-        registers.put("d", 0);
-
-        int instPtr = 0;
-        while (instPtr < instructions.length) {
-            String instruction = instructions[instPtr];
-            String[] parts = StringUtils.split(instruction, " ");
-            
-            switch (parts[0]) {
-            case "cpy":
-                registers.put(getRegister(parts[2]), getValue(registers, parts[1])); 
-                ++instPtr;
-                break;
-
-            case "inc":
-                adjustRegister(registers, getRegister(parts[1]), 1);
-                ++instPtr;
-                break;
-            
-            case "dec":
-                adjustRegister(registers, getRegister(parts[1]), -1);
-                ++instPtr;
-                break;
-            
-            case "jnz":     // jnz a 2
-                if (getValue(registers, parts[1]) != 0) {
-                    instPtr += AdventUtils.toInt(parts[2]);
-                } else {
-                    ++instPtr;
-                }
-                break;
-
-            default:
-                ++instPtr;
-                break; 
-            }
+    /**
+     * As {@link #process(String[], int, boolean)}, but profile the run; the registers are in the profile's execution.
+     */
+    public static Profile profile(String[] instructions, int cInitVal, boolean optimise) {
+        Program program = Program.compile(instructions);
+        if (optimise) {
+            program = program.optimise();
         }
         
-        return registers;
+        int[] registers = { 0, 0, cInitVal, 0 };
+        return program.profile(registers);
     }
     
     @Test
@@ -163,9 +644,177 @@ public class Y2016D12 {
         for (int i=0; i<inputs.length; ++i) {
             Map<String,Integer> registers = process(inputs[i], cRegInitVal[i]);
             assertEquals("process() incorrect", expected[i], getValue(registers, "a"));
+            assertEquals("unoptimised process() incorrect", expected[i], getValue(process(inputs[i], cRegInitVal[i], false), "a"));
         }
     }
-
+    
+    @Test
+    public void testCompile() {
+        Program program = Program.compile(new String[] { "cpy 41 a", "cpy a b", "inc c", "dec d", "jnz a -2", "jnz 0 5", "jnz 1 -3", "out a" });
+        int[] expected = {
+                Program.CPY_VAL, 41, 0,
+                Program.CPY_REG, 0, 1,
+                Program.INC, 2, 0,
+                Program.DEC, 3, 0,
+                Program.JNZ, 0, -2 * Program.WIDTH,
+                Program.NOP, 0, 0,
+                Program.JMP, 0, -3 * Program.WIDTH,
+                Program.NOP, 0, 0,
+        };
+        assertArrayEquals("compile() incorrect", expected, program.code);
+    }
+    
+    @Test
+    public void testOptimise() {
+        String[] multiply = {
+                "cpy 3 b",
+                "cpy 7 d",
+                "cpy b c",  // multiply loop
+                "dec c",    // add loop, decrement first
+                "inc a",
+                "jnz c -2",
+                "dec d",
+                "jnz d -5",
+                "dec b",    // zeroing loop
+                "jnz b -1",
+        };
+        String[][] inputs = { multiply, STAR_INPUTS };
+        
+        for (int i=0; i<inputs.length; ++i) {
+            Program program = Program.compile(inputs[i]);
+            Program optimised = program.optimise();
+            
+            for (int c=0; c<=1; ++c) {
+                Execution expected = program.execute(new int[] { 0, 0, c, 0 });
+                Execution actual = optimised.execute(new int[] { 0, 0, c, 0 });
+                System.out.printf("Program %d (c=%d): %d steps, %d elided by superinstructions\n", i, c, actual.steps, actual.elided);
+                
+                assertArrayEquals("optimised registers incorrect", expected.registers, actual.registers);
+                assertEquals("optimised steps incorrect", expected.steps, actual.steps);
+                assertEquals("plain run should elide nothing", 0, expected.elided);
+                assertTrue("optimised run should elide steps", actual.elided > 0);
+            }
+        }
+        
+        assertEquals("multiply loop not fused", Program.MUL_REG, Program.compile(multiply).optimise().code[2 * Program.WIDTH]);
+        assertEquals("zeroing loop not fused", Program.ZERO, Program.compile(multiply).optimise().code[8 * Program.WIDTH]);
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testAssembunnyCompilerTooLarge() {
+        // Straight-line code has no branches to overflow, so only the method size limit catches this
+        String[] source = new String[30000];
+        Arrays.fill(source, "inc a");
+        AssembunnyCompiler.compile(Program.compile(source));
+    }
+    
+    @Test
+    public void testAssembunnyCompiler() {
+        String[] large = { "cpy 100000 b", "cpy -70000 c", "inc a", "dec b", "jnz b -2", "jnz c 2", "dec a", "inc d" };
+        String[][] inputs = { large, STAR_INPUTS };
+        
+        for (int i=0; i<inputs.length; ++i) {
+            Program program = Program.compile(inputs[i]);
+            Program[] programs = { program, program.optimise() };
+            
+            for (Program p : programs) {
+                Consumer<int[]> compiled = AssembunnyCompiler.compile(p);
+                
+                for (int c=0; c<=1; ++c) {
+                    int[] expected = p.run(new int[] { 0, 0, c, 0 });
+                    int[] actual = { 0, 0, c, 0 };
+                    compiled.accept(actual);
+                    assertArrayEquals("compiled registers incorrect", expected, actual);
+                }
+            }
+        }
+        
+        // Compare throughput on the plain (unfused) star program, where the interpreter does the most work
+        Program program = Program.compile(STAR_INPUTS);
+        Consumer<int[]> compiled = AssembunnyCompiler.compile(program);
+        for (int round=0; round<3; ++round) {
+            long start = System.nanoTime();
+            Execution execution = program.execute(new int[] { 0, 0, 1, 0 });
+            long interpreted = System.nanoTime() - start;
+            
+            start = System.nanoTime();
+            compiled.accept(new int[] { 0, 0, 1, 0 });
+            long jvm = System.nanoTime() - start;
+            
+            System.out.printf("Round %d: %d steps, interpreted %.1f ms (%.0f Msteps/s), compiled %.1f ms (%.0f Msteps/s)\n",
+                    round, execution.steps, interpreted / 1e6, execution.steps * 1e3 / interpreted, jvm / 1e6, execution.steps * 1e3 / jvm);
+        }
+    }
+    
+    @Test
+    public void testProfile() {
+        for (boolean optimise : new boolean[] { false, true }) {
+            Profile profile = profile(STAR_INPUTS, 0, optimise);
+            Program program = Program.compile(STAR_INPUTS);
+            Execution expected = (optimise ? program.optimise() : program).execute(new int[] { 0, 0, 0, 0 });
+            System.out.printf("Profile (optimise=%b):\n%s", optimise, profile.report());
+            
+            assertArrayEquals("profiled registers incorrect", expected.registers, profile.getExecution().registers);
+            assertEquals("profiled steps incorrect", expected.steps, profile.getExecution().steps);
+            assertEquals("jnz counts incorrect", profile.getCount(15), profile.getTaken(15) + profile.getNotTaken(15));
+            
+            // The Fibonacci loop (with the add loop nested in it) is where the time goes
+            Loop hottest = profile.getHotLoops().get(0);
+            assertEquals("hottest loop start incorrect", 9, hottest.first);
+            assertEquals("hottest loop end incorrect", 15, hottest.last);
+            assertEquals("hottest loop iterations incorrect", 25, hottest.iterations);
+        }
+        
+        long dispatches = 0;
+        Profile profile = profile(STAR_INPUTS, 0, false);
+        for (int i=0; i<STAR_INPUTS.length; ++i) {
+            dispatches += profile.getCount(i);
+        }
+        assertEquals("plain dispatches should match steps", profile.getExecution().steps, dispatches);
+    }
+    
+    @Test
+    public void testExecuteAll() {
+        Program program = Program.compile(STAR_INPUTS).optimise();
+        List<int[]> initialRegisters = new ArrayList<int[]>();
+        for (int c=0; c<64; ++c) {
+            initialRegisters.add(new int[] { 0, 0, c % 2, c });
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            List<Execution> executions = program.executeAll(initialRegisters, pool);
+            assertEquals("executeAll() result count incorrect", initialRegisters.size(), executions.size());
+            
+            for (int i=0; i<initialRegisters.size(); ++i) {
+                Execution expected = program.execute(initialRegisters.get(i).clone());
+                assertArrayEquals("executeAll() registers incorrect", expected.registers, executions.get(i).registers);
+                assertEquals("executeAll() steps incorrect", expected.steps, executions.get(i).steps);
+                assertEquals("initial registers should be untouched", i, initialRegisters.get(i)[3]);
+            }
+            
+            assertEquals("executeAll() star one incorrect", 318020, executions.get(0).registers[0]);
+            assertEquals("executeAll() star two incorrect", 9227674, executions.get(1).registers[0]);
+        } finally {
+            pool.shutdown();
+        }
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileBadOperand() {
+        Program.compile(new String[] { "cpy x a" });
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileBadIncrement() {
+        Program.compile(new String[] { "inc e", "cpy 3 a" });
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testCompileBadTarget() {
+        Program.compile(new String[] { "cpy 1 x" });
+    }
+    
     public static final String[] STAR_INPUTS = {
             "cpy 1 a",
             "cpy 1 b",
@@ -1,14 +1,30 @@
 package com.verde.advent.y2016;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
-import java.util.HashMap;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
 import java.util.function.Supplier;
 
+import org.apache.commons.codec.DecoderException;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 /**
@@ -69,10 +85,11 @@ import org.junit.Test;
  */
 public class Y2016D14 {
     public static class HashGenerator implements Supplier<String> {
+        public static final int STRETCHES = 2016;
+        
         String seed;
         int index;
         boolean stretched;
-        static Map<String,String> cache = new HashMap<String,String>(); // shared
         
         public HashGenerator(String seed, int index, boolean stretched) {
             this.seed = seed;
@@ -82,69 +99,547 @@ public class Y2016D14 {
         
         @Override
         public String get() {
-            String message = String.format("%s%d", seed, index++);
-
-            String key = String.format("%s-%b", message, stretched);
-            String md5Hex = cache.get(key);
-            if (md5Hex != null) {
-                return md5Hex;
+            return Hex.encodeHexString(getDigest());
+        }
+        
+        /** Return the raw 16-byte digest for the next index (stretching always hashes the lowercase hex form). */
+        public byte[] getDigest() {
+            byte[] digest = DigestUtils.md5(String.format("%s%d", seed, index++));
+            
+            if (stretched) {
+                for (int i=0; i<STRETCHES; ++i) {
+                    digest = DigestUtils.md5(Hex.encodeHexString(digest));
+                }
             }
             
-            md5Hex = DigestUtils.md5Hex(message).toLowerCase();
+            return digest;
+        }
+    }
+    
+    /**
+     * HashStore persists the hash stream for one salt and stretch count as fixed 16-byte binary digest records, 
+     * addressed by index, in a single file. Reads go through memory-mapped chunks of the file, and new records are 
+     * appended as the stream is extended, so later runs (and other solvers) can reuse the already-computed prefix at 
+     * memory speed.
+     * <p>
+     * Appends are buffered and written in batches, each holding an exclusive lock on the file, so several processes can 
+     * share a store: the hashes are deterministic, so records someone else has already written are simply counted 
+     * rather than written again. Buffered records reach the file on {@link #flush()} or {@link #close()}.
+     */
+    public static class HashStore implements AutoCloseable {
+        public static final int RECORD_SIZE = 16;
+        static final int CHUNK_RECORDS = 1 << 16;     // records per mapping (1 MB)
+        static final int BATCH_RECORDS = 256;         // records per locked write (4 KB)
+        
+        // File locks belong to the whole JVM, so appends within it take turns before locking
+        private static final Object APPEND_LOCK = new Object();
+        
+        final FileChannel channel;
+        final List<MappedByteBuffer> chunks = new ArrayList<MappedByteBuffer>();
+        final ByteBuffer batch = ByteBuffer.allocate(BATCH_RECORDS * RECORD_SIZE);
+        int count;          // records in the store, including the batch
+        int flushed;        // records known to be in the file
+        
+        public HashStore(File directory, String seed, int stretches) {
+            File file = new File(directory, String.format("%s-%d.md5", toFileName(seed), stretches));
             
-            if (stretched) {
-                for (int i=0; i<2016; ++i) {
-                    md5Hex = DigestUtils.md5Hex(md5Hex).toLowerCase();
+            try {
+                directory.mkdirs();
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                count = (int) (channel.size() / RECORD_SIZE);   // ignore any torn record at the end of the file
+                flushed = count;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        
+        /**
+         * Escape everything but letters, digits, '.', '_' and '-' in the seed as %xx (of its UTF-8 bytes), so any 
+         * seed makes a single, safe file name, and different seeds never share a file.
+         */
+        static String toFileName(String seed) {
+            StringBuilder sb = new StringBuilder();
+            for (byte b : seed.getBytes(StandardCharsets.UTF_8)) {
+                char c = (char) (b & 0xff);
+                if (((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) || ((c >= '0') && (c <= '9')) || (".-_".indexOf(c) >= 0)) {
+                    sb.append(c);
+                } else {
+                    sb.append(String.format("%%%02x", b & 0xff));
                 }
             }
             
-            cache.put(key, md5Hex);
+            return sb.toString();
+        }
+        
+        public int size() {
+            return count;
+        }
+        
+        public byte[] read(int index) {
+            if ((index < 0) || (index >= count)) {
+                throw new IndexOutOfBoundsException(String.format("index %d is not in the store (size %d)", index, count));
+            }
+            
+            if (index >= flushed) {
+                flush();
+            }
+            
+            int offset = (index % CHUNK_RECORDS) * RECORD_SIZE;
+            MappedByteBuffer mapped = map(index / CHUNK_RECORDS, offset + RECORD_SIZE);
+            
+            byte[] digest = new byte[RECORD_SIZE];
+            for (int i=0; i<RECORD_SIZE; ++i) {
+                digest[i] = mapped.get(offset + i);
+            }
             
-            return md5Hex;
+            return digest;
+        }
+        
+        /** Append the digest for index {@link #size()}. */
+        public void append(byte[] digest) {
+            batch.put(digest, 0, RECORD_SIZE);
+            ++count;
+            if (!batch.hasRemaining()) {
+                flush();
+            }
+        }
+        
+        /** Write the batch of appended records to the file. */
+        public void flush() {
+            if (flushed == count) {
+                return;
+            }
+            
+            batch.flip();
+            try {
+                synchronized (APPEND_LOCK) {
+                    FileLock lock = channel.lock();
+                    try {
+                        // Another writer may have got here first, with the same records
+                        long position = (long) flushed * RECORD_SIZE;
+                        long written = Math.min(batch.remaining(), Math.max(0, channel.size() - position) / RECORD_SIZE * RECORD_SIZE);
+                        batch.position((int) written);
+                        for (position += written; batch.hasRemaining(); ) {
+                            position += channel.write(batch, position);
+                        }
+                    } finally {
+                        lock.release();
+                    }
+                }
+                flushed = count;
+            } catch (IOException e) {
+                count = flushed;    // the batch is lost, so the store ends where the file does
+                throw new UncheckedIOException(e);
+            } finally {
+                batch.clear();
+            }
+        }
+        
+        /** Return the mapping for a chunk, mapping it (again) only if it doesn't yet cover the given length. */
+        MappedByteBuffer map(int chunk, int length) {
+            MappedByteBuffer mapped = (chunk < chunks.size()) ? chunks.get(chunk) : null;
+            if ((mapped != null) && (mapped.capacity() >= length)) {
+                return mapped;
+            }
+            
+            try {
+                long start = (long) chunk * CHUNK_RECORDS;
+                mapped = channel.map(FileChannel.MapMode.READ_ONLY, start * RECORD_SIZE, Math.min(flushed - start, CHUNK_RECORDS) * RECORD_SIZE);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            
+            while (chunks.size() <= chunk) {
+                chunks.add(null);
+            }
+            chunks.set(chunk, mapped);
+            return mapped;
+        }
+        
+        @Override
+        public void close() {
+            try {
+                flush();
+            } finally {
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
         }
     }
     
-    public static List<Integer> getKeyIndices(String seed, int count, boolean stretched) {
-        HashGenerator hashGen1 = new HashGenerator(seed, 0, stretched);
-        List<Integer> indices = new LinkedList<Integer>();
+    /**
+     * StoredHashGenerator serves the hash stream out of a {@link HashStore}, and only starts hashing (sequentially, or
+     * pipelined when given more than one thread) once it runs past the stored prefix, appending what it computes.
+     */
+    public static class StoredHashGenerator implements Supplier<String>, AutoCloseable {
+        HashStore store;
+        String seed;
+        boolean stretched;
+        int threads;
+        int index;
+        HashGenerator sequential;
+        PipelinedHashGenerator pipelined;
         
-        while (indices.size() < count) {
-            String hash = hashGen1.get();
-            int hash1Index = hashGen1.index - 1; 
-            
-            // Look for 3-digit repeats
-            boolean hashIsKey = false;
-            boolean seenTriplet = false;
-            for (int i=0; !hashIsKey && !seenTriplet && i<hash.length()-2; ++i) {
-                char c = hash.charAt(i);
-                if ((c == hash.charAt(i+1)) && (c == hash.charAt(i+2))) {
-                    // Only process the first triplet - this tripped me up!
-                    seenTriplet = true;
-                    
-                    StringBuilder sb = new StringBuilder();
-                    sb.append(c).append(c).append(c).append(c).append(c);
-                    String match = sb.toString();
+        public StoredHashGenerator(File directory, String seed, boolean stretched, int threads) {
+            this.store = new HashStore(directory, seed, stretched ? HashGenerator.STRETCHES : 0);
+            this.seed = seed;
+            this.stretched = stretched;
+            this.threads = threads;
+        }
+        
+        @Override
+        public String get() {
+            if (index < store.size()) {
+                return Hex.encodeHexString(store.read(index++));
+            }
+            
+            // Past the stored prefix, so compute (starting from here) and persist
+            byte[] digest;
+            if (threads > 1) {
+                if (pipelined == null) {
+                    pipelined = new PipelinedHashGenerator(seed, index, stretched, threads, 4 * HashWindow.SIZE);
+                }
+                digest = decode(pipelined.get());
+            } else {
+                if (sequential == null) {
+                    sequential = new HashGenerator(seed, index, stretched);
+                }
+                digest = sequential.getDigest();
+            }
+            
+            store.append(digest);
+            ++index;
+            
+            return Hex.encodeHexString(digest);
+        }
+        
+        @Override
+        public void close() {
+            if (pipelined != null) {
+                pipelined.close();
+            }
+            store.close();
+        }
+        
+        static byte[] decode(String hex) {
+            try {
+                return Hex.decodeHex(hex.toCharArray());
+            } catch (DecoderException e) {
+                throw new IllegalStateException("invalid hash: " + hex, e);
+            }
+        }
+    }
+    
+    /**
+     * PipelinedHashGenerator computes hashes on worker threads ahead of a single consumer, which pays off when stretching
+     * makes every hash cost 2017 MD5s. Workers claim indices in order and publish each hash into a bounded, lock-free ring 
+     * at slot index % capacity; a worker never gets more than capacity indices ahead of the consumer, so a slot is always 
+     * empty by the time it is written. The consumer takes the hashes back in index order, so the stream is identical to 
+     * HashGenerator's.
+     */
+    public static class PipelinedHashGenerator implements Supplier<String>, AutoCloseable {
+        final String seed;
+        final boolean stretched;
+        final int capacity;
+        final AtomicReferenceArray<String> ring;
+        final AtomicInteger claimed;    // next index for a worker to compute
+        volatile int consumed;          // next index the consumer will take (written only by the consumer)
+        volatile boolean closed;
+        volatile Throwable failure;     // the first error from a worker, rethrown to the consumer
+        final List<Thread> workers = new LinkedList<Thread>();
+        
+        public PipelinedHashGenerator(String seed, int index, boolean stretched, int threads, int capacity) {
+            this.seed = seed;
+            this.stretched = stretched;
+            this.capacity = capacity;
+            this.ring = new AtomicReferenceArray<String>(capacity);
+            this.claimed = new AtomicInteger(index);
+            this.consumed = index;
+            
+            for (int t=0; t<threads; ++t) {
+                Thread worker = new Thread(this::produce, "y2016d14-hasher-" + t);
+                worker.setDaemon(true);
+                workers.add(worker);
+                worker.start();
+            }
+        }
+        
+        void produce() {
+            try {
+                while (!closed) {
+                    int index = claimed.getAndIncrement();
+                    for (int spins=0; !closed && (index - consumed >= capacity); ++spins) {
+                        backOff(spins);
+                    }
                     
-                    // Check the next 1000 hashes for the 5-digit repeats (using a different hasher)
-                    HashGenerator hashGen2 = new HashGenerator(seed, hashGen1.index, stretched);
-                    for (int h=0; !hashIsKey && h<1000; ++h) {
-                        String hash2 = hashGen2.get();
-                        int hash2Index = hashGen2.index - 1;
-                        
-                        if (hash2.contains(match)) {
-                            hashIsKey = true;
-                            indices.add(hash1Index);
-                            System.out.printf("Discovered key #%d %s at index %d (hash2 index %d (%s) contains %s, distance=%d)\n", 
-                                    indices.size()-1, hash, hash1Index, hash2Index, hash2, match, hash2Index-hash1Index);
-                        }
+                    if (!closed) {
+                        ring.lazySet(index % capacity, hash(index));
+                    }
+                }
+            } catch (Throwable t) {
+                // The slot this worker claimed will never be filled, so stop everything and let the consumer know
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = t;
+                    }
+                }
+                closed = true;
+            }
+        }
+        
+        String hash(int index) {
+            return new HashGenerator(seed, index, stretched).get();
+        }
+        
+        @Override
+        public String get() {
+            int index = consumed;
+            int slot = index % capacity;
+            
+            String hash;
+            for (int spins=0; (hash = ring.get(slot)) == null; ++spins) {
+                Throwable t = failure;
+                if (t != null) {
+                    throw new IllegalStateException("hash worker failed", t);
+                }
+                backOff(spins);
+            }
+            
+            ring.lazySet(slot, null);
+            consumed = index + 1;
+            return hash;
+        }
+        
+        @Override
+        public void close() {
+            closed = true;
+        }
+        
+        /** Spin briefly, then start parking so a waiting thread doesn't steal cycles from the hashers. */
+        static void backOff(int spins) {
+            if (spins < 100) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(50_000);
+            }
+        }
+    }
+    
+    /**
+     * HashWindow is a ring buffer over the hash stream that holds the hash at the current index plus the next 1000,
+     * so every hash is generated exactly once and memory stays fixed no matter how far the key search runs.
+     * <p>
+     * As each hash enters the window it is reduced to two 16-bit masks (bit n set for hex digit n): the digit of its first
+     * triplet, and the set of digits it repeats five times. The index of every quintuple is also kept in a ring of ints per 
+     * digit, trimmed to the window as it advances, so asking whether a key is confirmed is a range query on one ring 
+     * rather than 1000 substring searches.
+     */
+    public static class HashWindow {
+        public static final int SIZE = 1001;
+        
+        Supplier<String> generator;
+        String[] hashes = new String[SIZE];
+        short[] tripletMasks = new short[SIZE];
+        short[] quintupleMasks = new short[SIZE];
+        // Ascending indices of the quintuples still in the window, per hex digit; there is at most one per index,
+        // so a ring the size of the window can't overflow
+        int[][] quintupleIndices = new int[16][SIZE];
+        int[] quintupleFirst = new int[16];     // position of the oldest index in each ring
+        int[] quintupleCount = new int[16];
+        int generated;  // number of hashes pulled from the generator so far
+        
+        public HashWindow(Supplier<String> generator) {
+            this.generator = generator;
+        }
+        
+        public String get(int index) {
+            return hashes[advanceTo(index)];
+        }
+
+        public int getTripletMask(int index) {
+            return tripletMasks[advanceTo(index)] & 0xffff;
+        }
+
+        public int getQuintupleMask(int index) {
+            return quintupleMasks[advanceTo(index)] & 0xffff;
+        }
+        
+        /**
+         * Return true if any hash in (after, after+1000] has a quintuple of the given hex digit.
+         */
+        public boolean hasQuintuple(int digit, int after) {
+            return findQuintuple(digit, after) >= 0;
+        }
+        
+        /**
+         * Return the first index in (after, after+1000] with a quintuple of the given hex digit, or -1 if there is none.
+         * The whole range must still be in the window.
+         */
+        public int findQuintuple(int digit, int after) {
+            advanceTo(after + 1000);
+            if (after + 1 < generated - SIZE) {
+                throw new IllegalArgumentException(String.format("index %d has already left the window (next index %d)", after + 1, generated));
+            }
+            
+            int[] ring = quintupleIndices[digit];
+            for (int i=0; i<quintupleCount[digit]; ++i) {
+                int index = ring[(quintupleFirst[digit] + i) % SIZE];
+                if (index > after) {
+                    return (index <= after + 1000) ? index : -1;
+                }
+            }
+            
+            return -1;
+        }
+
+        /** Advance the window until it covers the index, and return the slot holding it. */
+        int advanceTo(int index) {
+            if (index < generated - SIZE) {
+                throw new IllegalArgumentException(String.format("index %d has already left the window (next index %d)", index, generated));
+            }
+            
+            while (generated <= index) {
+                int slot = generated % SIZE;
+                String hash = generator.get();
+                int masks = reduce(hash);
+                
+                hashes[slot] = hash;
+                tripletMasks[slot] = (short) masks;
+                quintupleMasks[slot] = (short) (masks >>> 16);
+                
+                // Drop the quintuples that leave the window as this hash enters it, then add its own
+                for (int digit=0; digit<quintupleIndices.length; ++digit) {
+                    while ((quintupleCount[digit] > 0) && (quintupleIndices[digit][quintupleFirst[digit]] <= generated - SIZE)) {
+                        quintupleFirst[digit] = (quintupleFirst[digit] + 1) % SIZE;
+                        --quintupleCount[digit];
                     }
                 }
+                for (int bits = masks >>> 16; bits != 0; bits &= bits - 1) {
+                    int digit = Integer.numberOfTrailingZeros(bits);
+                    quintupleIndices[digit][(quintupleFirst[digit] + quintupleCount[digit]++) % SIZE] = generated;
+                }
+                
+                ++generated;
+            }
+            
+            return index % SIZE;
+        }
+        
+        /** Reduce a hex hash to its first-triplet mask (low 16 bits) and quintuple mask (high 16 bits) in one pass. */
+        static int reduce(String hash) {
+            int triplet = 0;
+            int quintuples = 0;
+            int run = 0;
+            
+            for (int i=0; i<hash.length(); ++i) {
+                run = ((i > 0) && (hash.charAt(i) == hash.charAt(i-1))) ? run + 1 : 1;
+                
+                int bit = 1 << Character.digit(hash.charAt(i), 16);
+                if ((run == 3) && (triplet == 0)) {
+                    triplet = bit;
+                } else if (run == 5) {
+                    quintuples |= bit;
+                }
+            }
+            
+            return (quintuples << 16) | triplet;
+        }
+    }
+    
+    public static List<Integer> getKeyIndices(String seed, int count, boolean stretched) {
+        return getKeyIndices(new HashGenerator(seed, 0, stretched), count);
+    }
+    
+    /**
+     * Find the key indices, computing the hashes on a pipeline of worker threads.
+     * The results are identical to {@link #getKeyIndices(String, int, boolean)}.
+     */
+    public static List<Integer> getKeyIndices(String seed, int count, boolean stretched, int threads) {
+        if (threads <= 1) {
+            return getKeyIndices(seed, count, stretched);
+        }
+        
+        try (PipelinedHashGenerator generator = new PipelinedHashGenerator(seed, 0, stretched, threads, 4 * HashWindow.SIZE)) {
+            return getKeyIndices(generator, count);
+        }
+    }
+    
+    /**
+     * Find the key indices, reusing (and extending) the hash stream persisted under the given directory.
+     * The results are identical to {@link #getKeyIndices(String, int, boolean)}.
+     */
+    public static List<Integer> getKeyIndices(String seed, int count, boolean stretched, int threads, File storeDirectory) {
+        try (StoredHashGenerator generator = new StoredHashGenerator(storeDirectory, seed, stretched, threads)) {
+            return getKeyIndices(generator, count);
+        }
+    }
+    
+    static List<Integer> getKeyIndices(Supplier<String> generator, int count) {
+        HashWindow window = new HashWindow(generator);
+        List<Integer> indices = new LinkedList<Integer>();
+        
+        for (int index=0; indices.size() < count; ++index) {
+            // Only the first triplet counts - this tripped me up!
+            int triplet = window.getTripletMask(index);
+            if (triplet == 0) {
+                continue;
+            }
+            
+            // Check the next 1000 hashes for a 5-digit repeat of the same digit
+            int digit = Integer.numberOfTrailingZeros(triplet);
+            int quintuple = window.findQuintuple(digit, index);
+            if (quintuple >= 0) {
+                indices.add(index);
+                System.out.printf("Discovered key #%d %s at index %d (quintuple %x at index %d)\n", 
+                        indices.size()-1, window.get(index), index, digit, quintuple);
             }
         }
         
         return indices;
     }
     
+    @Test
+    public void testHashWindow() {
+        HashWindow window = new HashWindow(new HashGenerator("abc", 0, false));
+        assertEquals("hash[18] is incorrect", new HashGenerator("abc", 18, false).get(), window.get(18));
+        assertEquals("hash[1018] is incorrect", new HashGenerator("abc", 1018, false).get(), window.get(1018));
+        assertEquals("hash[18] should still be in the window", new HashGenerator("abc", 18, false).get(), window.get(18));
+    }
+    
+    @Test
+    public void testReduce() {
+        // abc18 has the triplet 888, abc816 has eeeee
+        assertEquals("triplet mask of abc18 is incorrect", 1 << 8, HashWindow.reduce(new HashGenerator("abc", 18, false).get()) & 0xffff);
+        assertEquals("quintuple mask of abc816 is incorrect", 1 << 0xe, HashWindow.reduce(new HashGenerator("abc", 816, false).get()) >>> 16);
+        assertEquals("reduce() of a run of 6 is incorrect", ((1 << 0xa) << 16) | (1 << 0xa), HashWindow.reduce("0aaaaaa1bbb"));
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testHashWindowEviction() {
+        HashWindow window = new HashWindow(new HashGenerator("abc", 0, false));
+        window.get(1019);
+        window.get(17);
+    }
+    
+    @Test
+    public void testFindQuintuple() {
+        // abc816 has eeeee, confirming the key at 39; every ring only ever holds what is in the window
+        HashWindow window = new HashWindow(new HashGenerator("abc", 0, false));
+        assertEquals("quintuple for index 39 is incorrect", 816, window.findQuintuple(0xe, 39));
+        assertTrue("quintuple should be after the index", window.findQuintuple(0xe, 816) != 816);
+        
+        window.get(20000);
+        for (int digit=0; digit<16; ++digit) {
+            for (int i=0; i<window.quintupleCount[digit]; ++i) {
+                int index = window.quintupleIndices[digit][(window.quintupleFirst[digit] + i) % HashWindow.SIZE];
+                assertTrue("ring holds an index outside the window", index > window.generated - 1 - HashWindow.SIZE);
+            }
+        }
+    }
+
     @Test
     public void testGenKeyIndices() {
         List<Integer> indices = getKeyIndices("abc", 64, false);
@@ -160,6 +655,108 @@ public class Y2016D14 {
         assertEquals("index[63] is incorrect", 22551, (int) indices.get(63));
     }
 
+    @Test
+    public void testPipelinedHashGenerator() {
+        HashGenerator expected = new HashGenerator("abc", 0, false);
+        try (PipelinedHashGenerator actual = new PipelinedHashGenerator("abc", 0, false, 3, 16)) {
+            for (int i=0; i<5000; ++i) {
+                assertEquals(String.format("pipelined hash[%d] is incorrect", i), expected.get(), actual.get());
+            }
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testPipelinedHashGeneratorFailure() {
+        // A worker that fails must not leave the consumer waiting forever for its hash
+        try (PipelinedHashGenerator failing = new PipelinedHashGenerator("abc", 0, false, 2, 16) {
+            @Override
+            String hash(int index) {
+                if (index == 10) {
+                    throw new IllegalArgumentException("failed on purpose");
+                }
+                return super.hash(index);
+            }
+        }) {
+            for (int i=0; i<100; ++i) {
+                failing.get();
+            }
+        }
+    }
+
+    @Test
+    public void testGenKeyIndicesStretchedPipelined() {
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors());
+        List<Integer> indices = getKeyIndices("abc", 64, true, threads);
+        assertEquals("index[0] is incorrect", 10, (int) indices.get(0));
+        assertEquals("index[63] is incorrect", 22551, (int) indices.get(63));
+    }
+
+    @Test
+    public void testStoredHashGenerator() throws IOException {
+        File directory = Files.createTempDirectory("y2016d14").toFile();
+        try {
+            // First run computes and persists the stream, second run reads it back
+            for (int run=0; run<2; ++run) {
+                List<Integer> indices = getKeyIndices("abc", 64, false, 1, directory);
+                assertEquals("index[0] is incorrect", 39, (int) indices.get(0));
+                assertEquals("index[63] is incorrect", 22728, (int) indices.get(63));
+            }
+            
+            try (HashStore store = new HashStore(directory, "abc", 0)) {
+                assertTrue("store should cover the search", store.size() > 22728 + 1000);
+                assertEquals("stored hash[816] is incorrect", new HashGenerator("abc", 816, false).get(), Hex.encodeHexString(store.read(816)));
+            }
+            
+            // Stretched hashes go to their own file
+            HashGenerator expected = new HashGenerator("abc", 0, true);
+            try (StoredHashGenerator actual = new StoredHashGenerator(directory, "abc", true, 1)) {
+                for (int i=0; i<20; ++i) {
+                    assertEquals(String.format("stored stretched hash[%d] is incorrect", i), expected.get(), actual.get());
+                }
+            }
+            assertEquals("stretched store is incorrect", 20 * HashStore.RECORD_SIZE, new File(directory, "abc-2016.md5").length());
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+
+    @Test
+    public void testHashStoreSharing() throws IOException {
+        File directory = Files.createTempDirectory("y2016d14").toFile();
+        try {
+            // Two stores on the same file, appending the same records, as two solvers would
+            int records = HashStore.CHUNK_RECORDS + 100;
+            try (HashStore first = new HashStore(directory, "../a b", 0); HashStore second = new HashStore(directory, "../a b", 0)) {
+                for (int i=0; i<records; ++i) {
+                    byte[] digest = record(i);
+                    first.append(digest);
+                    if (i % 2 == 0) {
+                        second.append(record(second.size()));
+                    }
+                    if (i == 10) {
+                        assertEquals("early record is incorrect", Hex.encodeHexString(record(5)), Hex.encodeHexString(first.read(5)));
+                    }
+                }
+                
+                // Reads map the first chunk again now that it has grown, and cross into the next
+                for (int i=HashStore.CHUNK_RECORDS-2; i<records; ++i) {
+                    assertEquals(String.format("record[%d] is incorrect", i), Hex.encodeHexString(record(i)), Hex.encodeHexString(first.read(i)));
+                }
+            }
+            
+            assertEquals("shared store is incorrect", (long) records * HashStore.RECORD_SIZE, new File(directory, "..%2fa%20b-0.md5").length());
+            assertEquals("only the store should be created", 1, directory.list().length);
+        } finally {
+            FileUtils.deleteDirectory(directory);
+        }
+    }
+    
+    static byte[] record(int i) {
+        byte[] digest = new byte[HashStore.RECORD_SIZE];
+        ByteBuffer.wrap(digest).putInt(i).putInt(~i);
+        return digest;
+    }
+
     @Test
     public void testSaltOne() {
         List<Integer> indices = getKeyIndices("cuanljph", 64, false);
@@ -3,11 +3,17 @@ package com.verde.advent.y2016;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.function.BiConsumer;
 
 import org.apache.commons.codec.digest.DigestUtils;
@@ -155,6 +161,27 @@ public class Y2016D17 {
             return getAllPaths(from, to, false).stream().sorted((s1, s2) -> Integer.compare(s2.length(), s1.length())).findFirst().orElse(null); 
         }
             
+        /**
+         * Return the length of the longest path to the vault (or -1 if there is none), 
+         * using a parallel search that never holds more than the paths currently being explored.
+         */
+        public int getLongestPathLength(Room from, Room to) {
+            return explore(from, to).getLongestLength();
+        }
+        
+        /**
+         * Explore every path to the vault with a fork-join depth-first search, keeping only the running 
+         * longest length and the current shortest path.
+         */
+        public PathSummary explore(Room from, Room to) {
+            PathBuffer path = new PathBuffer(passcode);
+            for (char c : from.path.toCharArray()) {
+                path.append((byte) c);
+            }
+            
+            return ForkJoinPool.commonPool().invoke(new PathTask(from.x, from.y, to, path));
+        }
+        
         public Set<String> getAllPaths(Room from, Room to, boolean stopOnShortest) {
             Queue<Room> queue = new LinkedList<Room>();
             Set<Room> visited = new HashSet<Room>();
@@ -209,6 +236,185 @@ public class Y2016D17 {
         }
     }
     
+    /**
+     * PathSummary is what the parallel search keeps instead of the set of all paths: the longest length seen,
+     * and the shortest path (ties go to the path the breadth-first search would reach first, i.e. U < D < L < R).
+     */
+    public static class PathSummary {
+        private static final String DIRECTION_ORDER = "UDLR";
+        
+        int longestLength = -1;
+        String shortestPath = null;
+        
+        public int getLongestLength() {
+            return longestLength;
+        }
+        
+        public String getShortestPath() {
+            return shortestPath;
+        }
+        
+        boolean isShorter(PathBuffer path) {
+            int length = path.getPathLength();
+            if (shortestPath == null || length < shortestPath.length()) {
+                return true;
+            }
+            
+            return (length == shortestPath.length()) && (compare(path.getPath(), shortestPath) < 0);
+        }
+        
+        void record(PathBuffer path) {
+            longestLength = Math.max(longestLength, path.getPathLength());
+            if (isShorter(path)) {
+                shortestPath = path.getPath();
+            }
+        }
+        
+        PathSummary merge(PathSummary rhs) {
+            longestLength = Math.max(longestLength, rhs.longestLength);
+            if ((rhs.shortestPath != null) 
+                    && ((shortestPath == null) 
+                            || (rhs.shortestPath.length() < shortestPath.length()) 
+                            || ((rhs.shortestPath.length() == shortestPath.length()) && (compare(rhs.shortestPath, shortestPath) < 0)))) {
+                shortestPath = rhs.shortestPath;
+            }
+            
+            return this;
+        }
+        
+        static int compare(String lhs, String rhs) {
+            for (int i=0; i<lhs.length(); ++i) {
+                int diff = DIRECTION_ORDER.indexOf(lhs.charAt(i)) - DIRECTION_ORDER.indexOf(rhs.charAt(i));
+                if (diff != 0) {
+                    return diff;
+                }
+            }
+            
+            return 0;
+        }
+    }
+    
+    /**
+     * PathBuffer holds the bytes that get hashed for a room: the passcode followed by the path taken so far.
+     * Steps are appended and removed in place as the search walks down and back up a subtree.
+     */
+    public static class PathBuffer {
+        byte[] bytes;
+        int length;
+        final int passcodeLength;
+        
+        public PathBuffer(String passcode) {
+            this.bytes = passcode.getBytes(StandardCharsets.US_ASCII);
+            this.length = bytes.length;
+            this.passcodeLength = bytes.length;
+        }
+        
+        private PathBuffer(PathBuffer rhs) {
+            this.bytes = Arrays.copyOf(rhs.bytes, rhs.bytes.length);
+            this.length = rhs.length;
+            this.passcodeLength = rhs.passcodeLength;
+        }
+        
+        public PathBuffer append(byte step) {
+            if (length == bytes.length) {
+                bytes = Arrays.copyOf(bytes, 2 * bytes.length + 16);
+            }
+            
+            bytes[length++] = step;
+            return this;
+        }
+        
+        public void removeLast() {
+            --length;
+        }
+        
+        public PathBuffer copy() {
+            return new PathBuffer(this);
+        }
+        
+        public int getPathLength() {
+            return length - passcodeLength;
+        }
+        
+        public String getPath() {
+            return new String(bytes, passcodeLength, getPathLength(), StandardCharsets.US_ASCII);
+        }
+        
+        public byte[] digest(MessageDigest md5) {
+            md5.update(bytes, 0, length);
+            return md5.digest();
+        }
+    }
+    
+    /**
+     * PathTask explores every path below one room depth-first. Near the top of the tree each open door is forked
+     * as its own task (with its own copy of the path) so subtrees spread across the pool's workers; deeper down
+     * the task walks its subtree on a single, shared PathBuffer.
+     */
+    public static class PathTask extends RecursiveTask<PathSummary> {
+        private static final long serialVersionUID = 1L;
+        private static final int FORK_DEPTH = 8;
+        private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(DigestUtils::getMd5Digest);
+        private static final byte[] STEPS = { 'U', 'D', 'L', 'R' };
+        private static final int[] DX = { 0, 0, -1, +1 };
+        private static final int[] DY = { -1, +1, 0, 0 };   // Y axis is inverted, so up is minus
+        
+        final int x, y;
+        final Room to;
+        final PathBuffer path;
+        
+        public PathTask(int x, int y, Room to, PathBuffer path) {
+            this.x = x;
+            this.y = y;
+            this.to = to;
+            this.path = path;
+        }
+        
+        @Override
+        protected PathSummary compute() {
+            PathSummary summary = new PathSummary();
+            List<PathTask> forks = new LinkedList<PathTask>();
+            
+            explore(x, y, summary, forks);
+            
+            for (PathTask fork : forks) {
+                summary.merge(fork.join());
+            }
+            
+            return summary;
+        }
+        
+        void explore(int x, int y, PathSummary summary, List<PathTask> forks) {
+            // Paths end the first time they reach the vault
+            if ((x == to.x) && (y == to.y)) {
+                summary.record(path);
+                return;
+            }
+            
+            // Only the first four hex digits matter: up, down, left, right
+            byte[] hash = path.digest(MD5.get());
+            int[] doors = { (hash[0] >> 4) & 0xf, hash[0] & 0xf, (hash[1] >> 4) & 0xf, hash[1] & 0xf };
+            
+            for (int dir=0; dir<STEPS.length; ++dir) {
+                int nextX = x + DX[dir];
+                int nextY = y + DY[dir];
+                if ((doors[dir] < 0xb) || (nextX < 0) || (nextX > 3) || (nextY < 0) || (nextY > 3)) {
+                    continue;
+                }
+                
+                if (path.getPathLength() < FORK_DEPTH) {
+                    PathTask fork = new PathTask(nextX, nextY, to, path.copy().append(STEPS[dir]));
+                    fork.fork();
+                    forks.add(fork);
+                } else {
+                    path.append(STEPS[dir]);
+                    explore(nextX, nextY, summary, forks);
+                    path.removeLast();
+                }
+            }
+        }
+    }
+    
     @Test
     public void testRoomSets() {
         Set<Room> rooms = new HashSet<Room>();
@@ -250,6 +456,18 @@ public class Y2016D17 {
         }
     }
 
+    @Test
+    public void testExplore() {
+        String[] inputs = { "hijkl", "ihgpwlah", "kglvqrro",  "ulqzkmiv", };
+        for (int i=0; i<inputs.length; ++i) {
+            Map map = new Map(inputs[i]);
+            PathSummary summary = map.explore(new Room(0,0), new Room(3,3));
+            String longest = map.getLongestPath(new Room(0,0), new Room(3,3));
+            assertEquals("explore() shortest path incorrect", map.getShortestPath(new Room(0,0), new Room(3,3)), summary.getShortestPath());
+            assertEquals("explore() longest length incorrect", (longest == null) ? -1 : longest.length(), summary.getLongestLength());
+        }
+    }
+
     @Test
     public void testStarOne() {
         Map map = new Map("bwnlcvfs");
@@ -260,6 +478,7 @@ public class Y2016D17 {
     public void testStarTwo() {
         Map map = new Map("bwnlcvfs");
         assertEquals("testStarOne() incorrect", 436, map.getLongestPath(new Room(0,0), new Room(3,3)).length());
+        assertEquals("getLongestPathLength() incorrect", 436, map.getLongestPathLength(new Room(0,0), new Room(3,3)));
     }
 }
 
@@ -1,12 +1,13 @@
 package com.verde.advent.y2018.d1;
 
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Comparator;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.function.Supplier;
 
+import com.verde.advent.LongIntMap;
+
 /**
  * --- Day 1: Chronal Calibration ---
  * "We've detected some temporal anomalies," one of Santa's Elves at the Temporal Anomaly Research and Detection Instrument Station tells you. 
@@ -67,15 +68,27 @@ public class Day1 {
      * @return first repeated sum that occurs at least repetitionCount times
      */
     public static int findFirstRepeatedSum(int[] inputs, int repetitionCount) {
+        if (repetitionCount == 2) {
+            return (int) findFirstRepeat(inputs);
+        }
+        
+        return loopToRepeatedSum(inputs, repetitionCount);
+    }
+    
+    /**
+     * Find the first repeated sum by running through the inputs, over and over, until some sum has been seen 
+     * repetitionCount times. This works for any count, but may need a great many passes.
+     */
+    static int loopToRepeatedSum(int[] inputs, int repetitionCount) {
         // Keep track of the sum counts
-        Map<Integer,Integer> sumCounts = new HashMap<Integer,Integer>();
+        LongIntMap sumCounts = new LongIntMap(inputs.length);
         
         int sum = 0;
         boolean done = false;
         for (int i=0; !done; ++i) {
             // Update current count of sum
-            int count = sumCounts.containsKey(sum) ? sumCounts.get(sum) : 0;
-            sumCounts.put(sum,  ++count);
+            int count = sumCounts.get(sum, 0) + 1;
+            sumCounts.put(sum, count);
 //            System.out.printf("Seeing sum %d for the %d time\n", sum, count);
             
             if (! (done = count == repetitionCount)) {
@@ -86,4 +99,73 @@ public class Day1 {
 //        System.out.printf("Sum %d was the first to be repeated %d times\n\n", sum, repetitionCount);
         return sum;
     }
+    
+    /**
+     * Find the first sum to be seen twice, without looping. After k passes the sum at index i is prefix[i] + k * drift,
+     * where drift is the sum of one pass; so a later sum can only land on prefix[i] if it started in the same residue 
+     * class mod drift, and the first to do so is the one just behind it in that class. Sorting the prefix sums by 
+     * residue and then value puts those pairs next to each other, which makes this O(n log n) however many passes 
+     * the loop would take.
+     *
+     * @throws IllegalArgumentException if there are no inputs
+     * @throws IllegalStateException if no sum is ever repeated
+     */
+    public static long findFirstRepeat(int[] inputs) {
+        int n = inputs.length;
+        if (n == 0) {
+            throw new IllegalArgumentException("No frequency changes");
+        }
+        
+        long[] prefix = new long[n];
+        for (int i=1; i<n; ++i) {
+            prefix[i] = prefix[i - 1] + inputs[i - 1];
+        }
+        long drift = prefix[n - 1] + inputs[n - 1];
+        long modulus = Math.abs(drift);
+        
+        // With no drift every pass is the same, so 0 comes round again at the start of the second pass at the latest
+        long bestTime = (drift == 0) ? n : Long.MAX_VALUE;
+        long bestSum = 0;
+        
+        Integer[] order = new Integer[n];
+        for (int i=0; i<n; ++i) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> (modulus == 0) ? 0 : Math.floorMod(prefix[i], modulus))
+                .thenComparingLong(i -> prefix[i])
+                .thenComparingInt(i -> i));
+        
+        for (int k=1; k<n; ++k) {
+            int lo = order[k - 1];
+            int hi = order[k];
+            if ((modulus != 0) && (Math.floorMod(prefix[lo], modulus) != Math.floorMod(prefix[hi], modulus))) {
+                continue;
+            }
+            
+            long time;
+            long repeated;
+            if (prefix[lo] == prefix[hi]) {
+                // Repeated within the first pass, when the later index is reached
+                time = hi;
+                repeated = prefix[hi];
+            } else if (modulus == 0) {
+                continue;
+            } else {
+                // The sum behind, in the direction of the drift, catches up after (gap / modulus) passes
+                int from = (drift > 0) ? lo : hi;
+                repeated = (drift > 0) ? prefix[hi] : prefix[lo];
+                time = ((prefix[hi] - prefix[lo]) / modulus) * n + from;
+            }
+            
+            if (time < bestTime) {
+                bestTime = time;
+                bestSum = repeated;
+            }
+        }
+        
+        if (bestTime == Long.MAX_VALUE) {
+            throw new IllegalStateException("No sum is ever repeated");
+        }
+        return bestSum;
+    }
 }
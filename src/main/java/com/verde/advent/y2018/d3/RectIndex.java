@@ -0,0 +1,173 @@
+package com.verde.advent.y2018.d3;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+import com.verde.advent.y2018.d3.Y2018D03.Rect;
+
+/**
+ * RectIndex is a static R-tree over a set of {@link Rect}s, bulk loaded with Sort-Tile-Recursive packing: sort by
+ * the x of each rect's centre, cut into vertical slices, sort each slice by y, and pack runs of {@link #NODE_SIZE}
+ * into nodes; then do the same to those nodes, up to a single root. Queries descend only into nodes whose bounds
+ * intersect (or contain) what they're looking for, so each one touches O(log n) nodes plus its results.
+ *
+ * @author bverde
+ */
+public class RectIndex {
+    static final int NODE_SIZE = 16;
+    
+    /**
+     * Node is either a leaf holding rects, or a branch holding nodes; either way its bounds cover everything below it.
+     */
+    static class Node {
+        final Rect bounds;
+        final Node[] children;
+        final Rect[] rects;
+        
+        Node(Node[] children) {
+            this.children = children;
+            this.rects = null;
+            this.bounds = union(Arrays.stream(children).map(child -> child.bounds).toArray(Rect[]::new));
+        }
+        
+        Node(Rect[] rects) {
+            this.children = null;
+            this.rects = rects;
+            this.bounds = union(rects);
+        }
+        
+        static Rect union(Rect[] rects) {
+            Rect bounds = null;
+            for (Rect r : rects) {
+                bounds = r.union(bounds);
+            }
+            
+            return bounds;
+        }
+    }
+    
+    final List<Rect> rects;
+    final Node root;
+    
+    public RectIndex(List<Rect> rects) {
+        this.rects = new ArrayList<Rect>(rects);
+        
+        // Pack the rects into leaves, then keep packing the nodes until there is only one
+        List<Node> nodes = pack(rects.toArray(new Rect[0]), r -> r, Node::new, Rect[]::new);
+        while (nodes.size() > 1) {
+            nodes = pack(nodes.toArray(new Node[0]), node -> node.bounds, Node::new, Node[]::new);
+        }
+        this.root = nodes.isEmpty() ? null : nodes.get(0);
+    }
+    
+    /** Pack the items into nodes of up to NODE_SIZE, with Sort-Tile-Recursive ordering. */
+    static <T> List<Node> pack(T[] items, Function<T,Rect> bounds, Function<T[],Node> builder, IntFunction<T[]> arrays) {
+        List<Node> nodes = new ArrayList<Node>();
+        int leafCount = (items.length + NODE_SIZE - 1) / NODE_SIZE;
+        int sliceCount = (int) Math.ceil(Math.sqrt(leafCount));
+        int sliceSize = sliceCount * NODE_SIZE;
+        
+        // Sums of the min and max are twice the centre, which orders the same way
+        Arrays.sort(items, Comparator.comparingLong(item -> (long) bounds.apply(item).getXMin() + bounds.apply(item).getXMax()));
+        for (int slice=0; slice<items.length; slice+=sliceSize) {
+            int sliceEnd = Math.min(slice + sliceSize, items.length);
+            Arrays.sort(items, slice, sliceEnd, Comparator.comparingLong(item -> (long) bounds.apply(item).getYMin() + bounds.apply(item).getYMax()));
+            
+            for (int start=slice; start<sliceEnd; start+=NODE_SIZE) {
+                T[] group = arrays.apply(Math.min(NODE_SIZE, sliceEnd - start));
+                System.arraycopy(items, start, group, 0, group.length);
+                nodes.add(builder.apply(group));
+            }
+        }
+        
+        return nodes;
+    }
+    
+    /**
+     * Return the rects that overlap (share some area with) the given one, other than the rect itself.
+     */
+    public List<Rect> overlapping(Rect rect) {
+        List<Rect> found = new ArrayList<Rect>();
+        search(root, rect, found, false);
+        return found;
+    }
+    
+    /**
+     * Return the rects that overlap no other rect, in the order they were given.
+     */
+    public List<Rect> loners() {
+        List<Rect> loners = new ArrayList<Rect>();
+        for (Rect r : rects) {
+            if (!search(root, r, null, true)) {
+                loners.add(r);
+            }
+        }
+        
+        return loners;
+    }
+    
+    /**
+     * Return the rects that contain the point, using the closed bounds of {@link Rect#contains(int, int)}.
+     */
+    public List<Rect> containing(int x, int y) {
+        List<Rect> found = new ArrayList<Rect>();
+        containing(root, x, y, found);
+        return found;
+    }
+    
+    /**
+     * Collect the rects below node that overlap rect (other than rect itself) into found,
+     * or if firstOnly, stop at the first one.
+     *
+     * @return true if any were found
+     */
+    boolean search(Node node, Rect rect, List<Rect> found, boolean firstOnly) {
+        if ((node == null) || (node.bounds.intersect(rect) == null)) {
+            return false;
+        }
+        
+        boolean any = false;
+        if (node.rects != null) {
+            for (Rect r : node.rects) {
+                if ((r != rect) && (r.intersect(rect) != null)) {
+                    if (firstOnly) {
+                        return true;
+                    }
+                    found.add(r);
+                    any = true;
+                }
+            }
+        } else {
+            for (Node child : node.children) {
+                any |= search(child, rect, found, firstOnly);
+                if (any && firstOnly) {
+                    return true;
+                }
+            }
+        }
+        
+        return any;
+    }
+    
+    void containing(Node node, int x, int y, List<Rect> found) {
+        if ((node == null) || !node.bounds.contains(x, y)) {
+            return;
+        }
+        
+        if (node.rects != null) {
+            for (Rect r : node.rects) {
+                if (r.contains(x, y)) {
+                    found.add(r);
+                }
+            }
+        } else {
+            for (Node child : node.children) {
+                containing(child, x, y, found);
+            }
+        }
+    }
+}
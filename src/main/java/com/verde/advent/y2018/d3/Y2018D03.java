@@ -1,12 +1,13 @@
 package com.verde.advent.y2018.d3;
 
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 
 /**
@@ -77,48 +78,77 @@ import java.util.stream.Stream;
  * @author bverde
  */
 public class Y2018D03 {
-    protected static Set<String>[][] stakeClaims(String[] specs) {
-        List<Rect> claims =
+    protected static List<Rect> parseClaims(String[] specs) {
+        return
                 Stream
                 .of(specs)
                 .map(Rect::fromSpec)
                 .collect(Collectors.toList());
-        
+    }
+    
+    /**
+     * Count the claims on each square inch of the fabric. Rather than filling in every claim square by square, 
+     * this marks each one's corners in a 2D difference array (+1 at its min corner and max corner, -1 at the other two)
+     * and then a single prefix sum pass turns the marks into the counts.
+     * 
+     * @return the count of claims per square inch, indexed [x][y]
+     */
+    protected static int[][] stakeClaims(List<Rect> claims) {
         // Compute the extents of all the claims
         AtomicReference<Rect> extentsRef = new AtomicReference<Rect>(null);
         claims.forEach(r -> extentsRef.set(r.union(extentsRef.get())));
         Rect extents = extentsRef.get();
         System.out.printf("Extents: %s\n", extents);
+        if (extents == null) {
+            return new int[0][0];
+        }
         
-        // Create a 2D array of the set of claim IDs that will store the count of the number of claims on the squares
-        @SuppressWarnings("unchecked")
-        Set<String>[][] claimIdsPerInch = new Set[extents.getXMax()][extents.getYMax()];
-        for (int x=0; x<extents.getXMax(); ++x) {
-            for (int y=0; y<extents.getYMax(); ++y) {
-                claimIdsPerInch[x][y] = new HashSet<String>();
+        int width = extents.getXMax();
+        int height = extents.getYMax();
+        int[][] counts = new int[width][height];
+        for (Rect r : claims) {
+            if (r.area() == 0) {
+                continue;
+            }
+            
+            // Marks on the far edges fall outside the fabric, so there's nothing to undo there
+            ++counts[r.getXMin()][r.getYMin()];
+            if (r.getXMax() < width) {
+                --counts[r.getXMax()][r.getYMin()];
+            }
+            if (r.getYMax() < height) {
+                --counts[r.getXMin()][r.getYMax()];
+            }
+            if ((r.getXMax() < width) && (r.getYMax() < height)) {
+                ++counts[r.getXMax()][r.getYMax()];
             }
         }
         
-        // Go thru all the claims and record the claim IDs for each square inch
-        claims.forEach(r -> {
-            for (int x=r.getXMin(); x<r.getXMax(); ++x) {
-                for (int y=r.getYMin(); y<r.getYMax(); ++y) {
-                    claimIdsPerInch[x][y].add(r.getId());
+        for (int x=0; x<width; ++x) {
+            for (int y=0; y<height; ++y) {
+                if (x > 0) {
+                    counts[x][y] += counts[x-1][y];
+                }
+                if (y > 0) {
+                    counts[x][y] += counts[x][y-1];
+                }
+                if ((x > 0) && (y > 0)) {
+                    counts[x][y] -= counts[x-1][y-1];
                 }
             }
-        });
-
-        return claimIdsPerInch;
+        }
+        
+        return counts;
     }
     
     public static int getNumSquareInchesWithMultipleClaims(String[] specs, int minClaims) {
-        Set<String>[][] claimIdsPerInch = stakeClaims(specs);
+        int[][] claimsPerInch = stakeClaims(parseClaims(specs));
 
         // Count all the square inches with >= the min number of claims
         int squareInches = 0;
-        for (int x=0; x<claimIdsPerInch.length; ++x) {
-            for (int y=0; y<claimIdsPerInch[0].length; ++y) {
-                if (claimIdsPerInch[x][y].size() >= minClaims) {
+        for (int x=0; x<claimsPerInch.length; ++x) {
+            for (int y=0; y<claimsPerInch[x].length; ++y) {
+                if (claimsPerInch[x][y] >= minClaims) {
                     ++squareInches;
                 }
             }
@@ -127,35 +157,248 @@ public class Y2018D03 {
         return squareInches;
     }
 
+    /**
+     * Return the id of the claim that overlaps no other, found with a {@link RectIndex} rather than a grid, so only the 
+     * claims near each one are checked. Empty claims don't count, since they cover no fabric at all.
+     */
     public static String getSoleClaim(String[] specs) {
-        Set<String>[][] claimIdsPerInch = stakeClaims(specs);
-
-        // Record all the IDs that have a primary claim on a square (these are potentials
-        // at this point, since they may be shared in other places). Also record all the
-        // claims that are known to be shared, so we can remove those later.
-        Set<String> soleClaims = new HashSet<String>();
-        Set<String> multiClaims = new HashSet<String>();
-        for (int x=0; x<claimIdsPerInch.length; ++x) {
-            for (int y=0; y<claimIdsPerInch[0].length; ++y) {
-                Set<String> claims = claimIdsPerInch[x][y];
-                
-                if (claims.size() == 1) {
-                    soleClaims.addAll(claims);
-                } else if (claims.size() > 1) {
-                    multiClaims.addAll(claims);
+        for (Rect r : new RectIndex(parseClaims(specs)).loners()) {
+            if (r.area() > 0) {
+                return r.getId();
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Return the area covered by at least minClaims claims, without a grid: a sweep line moves across x, stopping at 
+     * the claims' left and right edges, and a {@link Coverage} over the distinct y coordinates tracks how much of the 
+     * sweep line is covered at least minClaims times. For n claims this takes O(n log n) time when minClaims is small 
+     * enough for a {@link CoverageTree}, and O(n sqrt(n) log n) time in O(n) memory otherwise; whatever the fabric's size.
+     */
+    public static long getAreaWithMultipleClaims(String[] specs, int minClaims) {
+        return getAreaWithMultipleClaims(parseClaims(specs), minClaims);
+    }
+    
+    public static long getAreaWithMultipleClaims(List<Rect> claims, int minClaims) {
+        if (minClaims < 1) {
+            throw new IllegalArgumentException("minClaims must be at least 1: " + minClaims);
+        }
+        
+        List<Rect> nonEmpty = claims.stream().filter(r -> r.area() > 0).collect(Collectors.toList());
+        if (minClaims > nonEmpty.size()) {
+            return 0;
+        }
+        
+        int[] ys = nonEmpty.stream().flatMapToInt(r -> IntStream.of(r.getYMin(), r.getYMax())).sorted().distinct().toArray();
+        Coverage coverage = CoverageTree.fits(ys, minClaims) ? new CoverageTree(ys, minClaims) : new CoverageBlocks(ys, minClaims);
+        
+        // Each claim is an event at its left edge (+1) and right edge (-1), as { x, delta, claim index }
+        int[][] events = new int[2 * nonEmpty.size()][];
+        for (int i=0; i<nonEmpty.size(); ++i) {
+            events[2*i] = new int[] { nonEmpty.get(i).getXMin(), +1, i };
+            events[2*i + 1] = new int[] { nonEmpty.get(i).getXMax(), -1, i };
+        }
+        Arrays.sort(events, Comparator.comparingInt(e -> e[0]));
+        
+        long area = 0;
+        int lastX = (events.length > 0) ? events[0][0] : 0;
+        for (int[] event : events) {
+            area += coverage.getCovered() * (event[0] - lastX);
+            lastX = event[0];
+            
+            Rect r = nonEmpty.get(event[2]);
+            coverage.update(Arrays.binarySearch(ys, r.getYMin()), Arrays.binarySearch(ys, r.getYMax()), event[1]);
+        }
+        
+        return area;
+    }
+    
+    /**
+     * Coverage counts how many intervals cover each gap between sorted y coordinates, and tracks the length of the gaps
+     * covered at least k times.
+     */
+    interface Coverage {
+        long getCovered();
+        
+        /** Add delta to the cover of the gaps from ys[from] to ys[to]. */
+        void update(int from, int to, int delta);
+    }
+    
+    /**
+     * CoverageTree is a segment tree over the gaps between sorted y coordinates, counting how many intervals cover each.
+     * Each node keeps how many intervals cover its whole range, and for each j up to k, the length of its range that 
+     * intervals in its subtree cover at least j times; so the root knows the length covered at least k times.
+     * An update is O(k log n), and it needs O(n k) memory, so it is only for small k.
+     */
+    static class CoverageTree implements Coverage {
+        static final long MAX_CELLS = 1 << 22;      // 32 MB of lengths
+        
+        final int[] ys;
+        final int k;
+        final int[] cover;
+        final long[] atLeast;   // atLeast[node * (k + 1) + j]
+        
+        CoverageTree(int[] ys, int k) {
+            if (!fits(ys, k)) {
+                throw new IllegalArgumentException(String.format("Too large for a tree: %d coordinates, k %d", ys.length, k));
+            }
+            
+            this.ys = ys;
+            this.k = k;
+            int nodes = nodes(ys);
+            this.cover = new int[nodes];
+            this.atLeast = new long[nodes * (k + 1)];
+        }
+        
+        static int nodes(int[] ys) {
+            return 4 * Math.max(1, ys.length);
+        }
+        
+        static boolean fits(int[] ys, int k) {
+            return (long) nodes(ys) * (k + 1L) <= MAX_CELLS;
+        }
+        
+        @Override
+        public long getCovered() {
+            return (ys.length < 2) ? 0 : atLeast[(k + 1) + k];   // the root is node 1
+        }
+        
+        @Override
+        public void update(int from, int to, int delta) {
+            update(1, 0, ys.length - 1, from, to, delta);
+        }
+        
+        void update(int node, int lo, int hi, int from, int to, int delta) {
+            if ((to <= lo) || (hi <= from)) {
+                return;
+            }
+            
+            if ((from <= lo) && (hi <= to)) {
+                cover[node] += delta;
+            } else {
+                int mid = (lo + hi) >>> 1;
+                update(2*node, lo, mid, from, to, delta);
+                update(2*node + 1, mid, hi, from, to, delta);
+            }
+            
+            pull(node, lo, hi);
+        }
+        
+        void pull(int node, int lo, int hi) {
+            int base = node * (k + 1);
+            long length = ys[hi] - ys[lo];
+            boolean leaf = (hi - lo == 1);
+            
+            for (int j=0; j<=k; ++j) {
+                if (j <= cover[node]) {
+                    atLeast[base + j] = length;
+                } else if (leaf) {
+                    atLeast[base + j] = 0;
+                } else {
+                    int needed = j - cover[node];
+                    atLeast[base + j] = atLeast[2*node*(k + 1) + needed] + atLeast[(2*node + 1)*(k + 1) + needed];
                 }
             }
         }
+    }
+    
+    /**
+     * CoverageBlocks splits the gaps between sorted y coordinates into blocks of about sqrt(n). Each block keeps a 
+     * pending cover for updates that span all of it, and its gaps sorted by their own cover with the suffix sums of 
+     * their lengths; so the length it has covered at least k times is one binary search away. An update that spans a 
+     * block is O(log n) for it, and only the (at most two) blocks an update ends in are re-sorted; so an update is 
+     * O(sqrt(n) log n), in O(n) memory whatever k is.
+     */
+    static class CoverageBlocks implements Coverage {
+        final int[] ys;
+        final int k;
+        final int blockSize;
+        final int[] counts;         // cover of each gap, apart from its block's pending cover
+        final int[] pending;        // cover of each block as a whole
+        final long[][] sorted;      // per block, (count << 32 | offset in block) in ascending order
+        final long[][] suffix;      // per block, suffix[i] is the total length of the gaps sorted[i..]
+        final long[] covered;       // per block, the length covered at least k times
+        long total;
+        
+        CoverageBlocks(int[] ys, int k) {
+            this.ys = ys;
+            this.k = k;
+            int gaps = Math.max(0, ys.length - 1);
+            this.blockSize = Math.max(1, (int) Math.sqrt(gaps));
+            int blocks = (gaps + blockSize - 1) / blockSize;
+            
+            this.counts = new int[gaps];
+            this.pending = new int[blocks];
+            this.sorted = new long[blocks][];
+            this.suffix = new long[blocks][];
+            this.covered = new long[blocks];
+            for (int b=0; b<blocks; ++b) {
+                int size = Math.min(blockSize, gaps - b*blockSize);
+                sorted[b] = new long[size];
+                suffix[b] = new long[size + 1];
+                rebuild(b);
+            }
+        }
         
-        // Make sure to clear out any claims that were discovered to be shared
-        soleClaims.removeAll(multiClaims);
+        @Override
+        public long getCovered() {
+            return total;
+        }
         
-        System.out.printf("Sole Claims Discovered (%d):", soleClaims.size());
-        soleClaims.forEach(sc -> System.out.printf(" %s", sc));
-        System.out.println();
+        @Override
+        public void update(int from, int to, int delta) {
+            for (int b=from/blockSize; (b < sorted.length) && (b*blockSize < to); ++b) {
+                int start = b * blockSize;
+                int end = start + sorted[b].length;
+                if ((from <= start) && (end <= to)) {
+                    pending[b] += delta;
+                    recount(b);
+                } else {
+                    for (int g=Math.max(from, start); g<Math.min(to, end); ++g) {
+                        counts[g] += delta;
+                    }
+                    rebuild(b);
+                }
+            }
+        }
         
-        String claim = soleClaims.stream().findFirst().orElse(null);        
-        return claim;
+        void rebuild(int b) {
+            int start = b * blockSize;
+            long[] keys = sorted[b];
+            for (int i=0; i<keys.length; ++i) {
+                keys[i] = ((long) counts[start + i] << 32) | i;
+            }
+            Arrays.sort(keys);
+            
+            long[] lengths = suffix[b];
+            for (int i=keys.length-1; i>=0; --i) {
+                int gap = start + (int) keys[i];
+                lengths[i] = lengths[i + 1] + (ys[gap + 1] - ys[gap]);
+            }
+            
+            recount(b);
+        }
+        
+        void recount(int b) {
+            // The first gap whose own count reaches k once the block's pending cover is added
+            long[] keys = sorted[b];
+            long threshold = (long) (k - pending[b]) << 32;
+            int lo = 0;
+            int hi = keys.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (keys[mid] < threshold) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            
+            total += suffix[b][lo] - covered[b];
+            covered[b] = suffix[b][lo];
+        }
     }
     
     /**
@@ -234,8 +477,8 @@ public class Y2018D03 {
             return (val >= min) && (val <= max);
         }
         
-        public int area() {
-            return Math.abs(xMax - xMin) * Math.abs(yMax - yMin);
+        public long area() {
+            return (long) Math.abs(xMax - xMin) * Math.abs(yMax - yMin);
         }
         
         public Rect union(Rect r) {
@@ -0,0 +1,91 @@
+package com.verde.advent.y2019.d2;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * IntcodeChannel is a bounded, lock-free, single producer single consumer queue of values between two Intcode VMs
+ * (or a VM and the code driving it). It is a ring buffer with a read and a write counter, each only ever advanced by
+ * its own side, so neither side needs a lock or a CAS.
+ * <p>
+ * When a VM is attached at either end and run by an {@link IntcodeScheduler}, writing a value wakes the reader and
+ * reading one wakes the writer, in case they were parked waiting on this channel.
+ *
+ * @author bverde
+ */
+public class IntcodeChannel {
+    final long[] buffer;
+    final int mask;
+    final AtomicLong head = new AtomicLong();   // count of values read
+    final AtomicLong tail = new AtomicLong();   // count of values written
+    volatile IntcodeVm reader;
+    volatile IntcodeVm writer;
+    
+    /**
+     * Create a channel that holds at least capacity values (rounded up to a power of two).
+     */
+    public IntcodeChannel(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Channel capacity must be positive: " + capacity);
+        }
+        
+        int size = Integer.highestOneBit(capacity);
+        this.buffer = new long[(size < capacity) ? 2 * size : size];
+        this.mask = buffer.length - 1;
+    }
+    
+    /**
+     * Add a value, if there is room for it. Only the producer may call this.
+     *
+     * @return false if the channel is full
+     */
+    public boolean offer(long value) {
+        long t = tail.get();
+        if (t - head.get() == buffer.length) {
+            return false;
+        }
+        
+        buffer[(int) t & mask] = value;
+        tail.set(t + 1);    // publishes the value
+        wake(reader);
+        return true;
+    }
+    
+    /**
+     * Remove the next value. Only the consumer may call this.
+     *
+     * @throws IllegalStateException if the channel is empty
+     */
+    public long poll() {
+        long h = head.get();
+        if (h == tail.get()) {
+            throw new IllegalStateException("Channel is empty");
+        }
+        
+        long value = buffer[(int) h & mask];
+        head.set(h + 1);    // frees the slot for the producer
+        wake(writer);
+        return value;
+    }
+    
+    public boolean isEmpty() {
+        return head.get() == tail.get();
+    }
+    
+    public boolean isFull() {
+        return tail.get() - head.get() == buffer.length;
+    }
+    
+    public int size() {
+        return (int) (tail.get() - head.get());
+    }
+    
+    public int capacity() {
+        return buffer.length;
+    }
+    
+    static void wake(IntcodeVm vm) {
+        if ((vm != null) && (vm.scheduler != null)) {
+            vm.scheduler.wake(vm);
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.verde.advent.y2019.d2;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * IntcodeScheduler runs many Intcode VMs cooperatively on a small, fixed pool of threads. A VM runs until it halts
+ * or blocks on one of its {@link IntcodeChannel}s, and is then parked rather than holding on to its thread; writing
+ * to (or reading from) the channel it is blocked on schedules it again.
+ * <p>
+ * The scheduler keeps count of the VMs that are queued or running. When that count reaches zero every VM is either
+ * halted or parked with nothing to read (or no room to write), so the run is over: complete if they have all halted,
+ * and deadlocked otherwise. Values from outside the scheduler should be written to the channels before {@link #run()}.
+ *
+ * @author bverde
+ */
+public class IntcodeScheduler {
+    final int threads;
+    final List<IntcodeVm> vms = new ArrayList<IntcodeVm>();
+    volatile Run current;
+    
+    /**
+     * Run holds the state of one call to {@link IntcodeScheduler#run()}, so a later run starts afresh. When a run
+     * fails, other slices may still be running; run() waits for them to finish before it returns, and anything they 
+     * wake meanwhile is dropped, so none of them can reach a later run.
+     */
+    class Run {
+        final ExecutorService pool;
+        final AtomicInteger scheduled = new AtomicInteger();    // VMs queued or running
+        final AtomicInteger active = new AtomicInteger();       // VMs that haven't halted
+        final CompletableFuture<Void> done = new CompletableFuture<Void>();
+        
+        Run(int active) {
+            this.active.set(active);
+            this.pool = Executors.newFixedThreadPool(threads, r -> {
+                Thread thread = new Thread(r, "intcode-scheduler");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        
+        void slice(IntcodeVm vm) {
+            try {
+                if (!vm.isHalted()) {
+                    vm.run();
+                    if (vm.isHalted()) {
+                        active.decrementAndGet();
+                    }
+                }
+                
+                // Park, then look again: anything written while this was running found it still queued and didn't wake it
+                vm.queued.set(false);
+                if (!vm.isHalted() && vm.canResume()) {
+                    wake(vm);
+                }
+                
+                release();
+            } catch (RuntimeException e) {
+                done.completeExceptionally(e);
+            }
+        }
+        
+        void wake(IntcodeVm vm) {
+            if (vm.queued.get() || !vm.queued.compareAndSet(false, true)) {
+                return;
+            }
+            
+            scheduled.incrementAndGet();
+            try {
+                pool.execute(() -> slice(vm));
+            } catch (RejectedExecutionException e) {
+                // The run has failed and its pool is shut down, so there's nothing more to run
+                scheduled.decrementAndGet();
+                vm.queued.set(false);
+            }
+        }
+        
+        void release() {
+            if (scheduled.decrementAndGet() == 0) {
+                int blocked = active.get();
+                if (blocked == 0) {
+                    done.complete(null);
+                } else {
+                    done.completeExceptionally(new IllegalStateException(String.format("Deadlock: %d VMs are blocked", blocked)));
+                }
+            }
+        }
+    }
+    
+    public IntcodeScheduler(int threads) {
+        this.threads = threads;
+    }
+    
+    public IntcodeScheduler add(IntcodeVm vm) {
+        if (vm.scheduler != null) {
+            throw new IllegalStateException("VM is already scheduled elsewhere");
+        }
+        
+        vm.scheduler = this;
+        vms.add(vm);
+        return this;
+    }
+    
+    /**
+     * Run every VM until they have all halted. This may be called again, for example after resetting the VMs.
+     *
+     * @throws IllegalStateException if the VMs deadlock, or one of them fails
+     */
+    public void run() {
+        // Only VMs that haven't halted yet have anything left to do
+        int active = 0;
+        for (IntcodeVm vm : vms) {
+            vm.queued.set(false);
+            active += vm.isHalted() ? 0 : 1;
+        }
+        if (active == 0) {
+            return;
+        }
+        
+        Run run = new Run(active);
+        current = run;
+        try {
+            // Hold one count while starting everything, so an early finisher can't end the run
+            run.scheduled.incrementAndGet();
+            for (IntcodeVm vm : vms) {
+                if (!vm.isHalted()) {
+                    run.wake(vm);
+                }
+            }
+            run.release();
+            
+            run.done.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while running VMs", e);
+        } catch (ExecutionException e) {
+            throw (e.getCause() instanceof IllegalStateException)
+                    ? (IllegalStateException) e.getCause()
+                    : new IllegalStateException("VM failed", e.getCause());
+        } finally {
+            current = null;
+            run.pool.shutdownNow();
+            awaitTermination(run.pool);
+            
+            // Slices that were still queued never ran, so their VMs are parked
+            for (IntcodeVm vm : vms) {
+                vm.queued.set(false);
+            }
+        }
+    }
+    
+    /**
+     * Wait for the slices still running in a pool (after a failure) to finish, since VMs can't be interrupted mid-slice.
+     */
+    static void awaitTermination(ExecutorService pool) {
+        try {
+            while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+                // keep waiting
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Schedule a parked VM; this does nothing if it is already queued or running, or the scheduler isn't running.
+     */
+    void wake(IntcodeVm vm) {
+        Run run = current;
+        if (run != null) {
+            run.wake(vm);
+        }
+    }
+}
@@ -0,0 +1,248 @@
+package com.verde.advent.y2019.d2;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * IntcodeVm is a reusable Intcode computer. Memory is a long[] that {@link #reset()} restores from the program
+ * template with a single array copy, so one VM can run the same program many times without allocating.
+ * <p>
+ * Instructions are found through a dispatch table indexed by opcode; an opcode with no entry is an error rather than
+ * something to skip over. The VM counts the steps it takes and how often each opcode runs.
+ * <p>
+ * In {@link MemoryMode#INT} mode, arithmetic results wrap to 32 bits just like an int[] computer;
+ * {@link MemoryMode#LONG} keeps the full 64 bits for programs that work with large values.
+ * <p>
+ * Input and output (opcodes 3 and 4, position mode) go through {@link IntcodeChannel} ports. A VM that can't read or 
+ * write blocks rather than failing, so VMs can be chained together and run by an {@link IntcodeScheduler}.
+ *
+ * @author bverde
+ */
+public class IntcodeVm {
+    public static final int ADD = 1;
+    public static final int MULTIPLY = 2;
+    public static final int INPUT = 3;
+    public static final int OUTPUT = 4;
+    public static final int HALT = 99;
+    
+    public enum MemoryMode { INT, LONG }
+    
+    /**
+     * Instruction executes the instruction at ip, and returns the address of the next one (or -1 to halt).
+     */
+    interface Instruction {
+        int execute(IntcodeVm vm, int ip);
+    }
+    
+    static final Instruction[] DISPATCH = new Instruction[100];
+    
+    // The number of addresses each instruction takes up, the opcode and its operands
+    static final int[] WIDTHS = new int[DISPATCH.length];
+    static {
+        WIDTHS[ADD] = 4;
+        WIDTHS[MULTIPLY] = 4;
+        WIDTHS[INPUT] = 2;
+        WIDTHS[OUTPUT] = 2;
+        WIDTHS[HALT] = 1;
+        
+        DISPATCH[ADD] = (vm, ip) -> {
+            vm.store(vm.memory[ip + 3], vm.load(vm.memory[ip + 1]) + vm.load(vm.memory[ip + 2]));
+            return ip + 4;
+        };
+        DISPATCH[MULTIPLY] = (vm, ip) -> {
+            vm.store(vm.memory[ip + 3], vm.load(vm.memory[ip + 1]) * vm.load(vm.memory[ip + 2]));
+            return ip + 4;
+        };
+        DISPATCH[INPUT] = (vm, ip) -> {
+            IntcodeChannel input = vm.port(vm.input, "input");
+            if (input.isEmpty()) {
+                return vm.block(input, ip);
+            }
+            
+            vm.store(vm.memory[ip + 1], input.poll());
+            return ip + 2;
+        };
+        DISPATCH[OUTPUT] = (vm, ip) -> {
+            IntcodeChannel output = vm.port(vm.output, "output");
+            if (output.isFull()) {
+                return vm.block(output, ip);
+            }
+            
+            output.offer(vm.load(vm.memory[ip + 1]));
+            return ip + 2;
+        };
+        DISPATCH[HALT] = (vm, ip) -> -1;
+    }
+    
+    final long[] template;
+    final long[] memory;
+    final MemoryMode mode;
+    int ip;
+    long steps;
+    final long[] instructionCounts = new long[DISPATCH.length];
+    
+    // I/O ports, and the scheduler state when run by an IntcodeScheduler
+    IntcodeChannel input;
+    IntcodeChannel output;
+    IntcodeChannel blockedOn;
+    IntcodeScheduler scheduler;
+    final AtomicBoolean queued = new AtomicBoolean();
+    
+    public IntcodeVm(int[] program) {
+        // toLongs already makes a copy, so it can be the template as it is
+        this(toLongs(program), MemoryMode.INT, false);
+    }
+    
+    public IntcodeVm(long[] program, MemoryMode mode) {
+        this(program, mode, true);
+    }
+    
+    /**
+     * Unless copy is set, the program is used as the template as it is, so VMs can share one that nothing writes to.
+     */
+    IntcodeVm(long[] program, MemoryMode mode, boolean copy) {
+        this.template = copy ? program.clone() : program;
+        this.memory = template.clone();
+        this.mode = mode;
+    }
+    
+    static long[] toLongs(int[] program) {
+        long[] longs = new long[program.length];
+        for (int i=0; i<program.length; ++i) {
+            longs[i] = program[i];
+        }
+        
+        return longs;
+    }
+    
+    /**
+     * Restore memory from the program, and clear the instruction pointer and counters.
+     */
+    public IntcodeVm reset() {
+        System.arraycopy(template, 0, memory, 0, template.length);
+        ip = 0;
+        steps = 0;
+        for (int i=0; i<instructionCounts.length; ++i) {
+            instructionCounts[i] = 0;
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Run from the current instruction pointer until the program halts, or blocks on one of its ports 
+     * (reading from an empty input, or writing to a full output). Running again resumes a blocked program.
+     */
+    public IntcodeVm run() {
+        blockedOn = null;
+        while ((ip >= 0) && (blockedOn == null)) {
+            if (ip >= memory.length) {
+                throw new IllegalStateException(String.format("Instruction pointer %d is outside memory (size %d)", ip, memory.length));
+            }
+            
+            long opcode = memory[ip];
+            Instruction instruction = ((opcode >= 0) && (opcode < DISPATCH.length)) ? DISPATCH[(int) opcode] : null;
+            if (instruction == null) {
+                throw new IllegalStateException(String.format("Unknown opcode %d at address %d", opcode, ip));
+            }
+            if (ip + WIDTHS[(int) opcode] > memory.length) {
+                throw new IllegalStateException(String.format("Instruction %d at address %d runs past the end of memory (size %d)", opcode, ip, memory.length));
+            }
+            
+            ++steps;
+            ++instructionCounts[(int) opcode];
+            ip = instruction.execute(this, ip);
+        }
+        
+        return this;
+    }
+    
+    /**
+     * Reset, set the noun and verb (addresses 1 and 2), run, and return the value left at address 0.
+     */
+    public long run(long noun, long verb) {
+        reset();
+        poke(1, noun);
+        poke(2, verb);
+        return run().peek(0);
+    }
+    
+    public long peek(int address) {
+        return memory[address];
+    }
+    
+    public void poke(int address, long value) {
+        memory[address] = value;
+    }
+    
+    public long getSteps() {
+        return steps;
+    }
+    
+    public long getInstructionCount(int opcode) {
+        return instructionCounts[opcode];
+    }
+    
+    public boolean isHalted() {
+        return ip < 0;
+    }
+    
+    public boolean isBlocked() {
+        return blockedOn != null;
+    }
+    
+    /**
+     * Read input values from the channel; this VM must be its only reader.
+     */
+    public IntcodeVm setInput(IntcodeChannel input) {
+        this.input = input;
+        input.reader = this;
+        return this;
+    }
+    
+    /**
+     * Write output values to the channel; this VM must be its only writer.
+     */
+    public IntcodeVm setOutput(IntcodeChannel output) {
+        this.output = output;
+        output.writer = this;
+        return this;
+    }
+    
+    /** Return true if the port this VM is blocked on (if any) is now ready. */
+    boolean canResume() {
+        IntcodeChannel channel = blockedOn;
+        return (channel == null) || ((channel == input) ? !channel.isEmpty() : !channel.isFull());
+    }
+    
+    IntcodeChannel port(IntcodeChannel channel, String name) {
+        if (channel == null) {
+            throw new IllegalStateException(String.format("No %s port for the instruction at %d", name, ip));
+        }
+        
+        return channel;
+    }
+    
+    /** Block on a channel, leaving the instruction at ip to be retried (and not counted until then). */
+    int block(IntcodeChannel channel, int ip) {
+        blockedOn = channel;
+        --steps;
+        --instructionCounts[(int) memory[ip]];
+        return ip;
+    }
+    
+    long load(long address) {
+        return memory[checkAddress(address)];
+    }
+    
+    void store(long address, long value) {
+        memory[checkAddress(address)] = (mode == MemoryMode.INT) ? (int) value : value;
+    }
+    
+    int checkAddress(long address) {
+        if ((address < 0) || (address >= memory.length)) {
+            throw new IllegalStateException(String.format("Address %d at instruction %d is outside memory (size %d)", address, ip, memory.length));
+        }
+        
+        return (int) address;
+    }
+}
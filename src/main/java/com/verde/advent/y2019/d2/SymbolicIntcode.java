@@ -0,0 +1,197 @@
+package com.verde.advent.y2019.d2;
+
+/**
+ * SymbolicIntcode runs a day 2 style program with the noun and verb (addresses 1 and 2) left as unknowns.
+ * Each memory cell holds an {@link Affine} expression c + n*noun + v*verb, or null once it has become nonlinear
+ * (the product of two expressions that both depend on the inputs).
+ * <p>
+ * This only works while the program's control flow doesn't depend on the inputs: every opcode and every address
+ * that is written to must evaluate to a constant (a read through any other address just gives an unknown value).
+ * When that doesn't hold, {@link #evaluate(long[])} gives up and returns null,
+ * and callers fall back to running the program concretely.
+ *
+ * @author bverde
+ */
+public class SymbolicIntcode {
+    /**
+     * Affine is the expression constant + noun*nounCoefficient + verb*verbCoefficient.
+     */
+    public static class Affine {
+        public final long constant;
+        public final long noun;
+        public final long verb;
+        
+        public Affine(long constant, long noun, long verb) {
+            this.constant = constant;
+            this.noun = noun;
+            this.verb = verb;
+        }
+        
+        boolean isConstant() {
+            return (noun == 0) && (verb == 0);
+        }
+        
+        Affine add(Affine other) {
+            return new Affine(Math.addExact(constant, other.constant), Math.addExact(noun, other.noun), Math.addExact(verb, other.verb));
+        }
+        
+        Affine scale(long factor) {
+            return new Affine(Math.multiplyExact(constant, factor), Math.multiplyExact(noun, factor), Math.multiplyExact(verb, factor));
+        }
+        
+        public long evaluate(long n, long v) {
+            return constant + (noun * n) + (verb * v);
+        }
+        
+        @Override
+        public String toString() {
+            return String.format("%d + %d*noun + %d*verb", constant, noun, verb);
+        }
+    }
+    
+    /**
+     * Evaluate the program symbolically, and return the expression left at address 0.
+     *
+     * @return the expression, or null if the program can't be evaluated symbolically or the result isn't affine
+     */
+    public static Affine evaluate(long[] program) {
+        if (program.length < 3) {
+            return null;
+        }
+        
+        Affine[] memory = new Affine[program.length];
+        for (int i=0; i<program.length; ++i) {
+            memory[i] = new Affine(program[i], 0, 0);
+        }
+        memory[1] = new Affine(0, 1, 0);
+        memory[2] = new Affine(0, 0, 1);
+        
+        try {
+            for (int ip=0; ; ip+=4) {
+                long opcode = constantAt(memory, ip);
+                if (opcode == IntcodeVm.HALT) {
+                    return memory[0];
+                } else if ((opcode != IntcodeVm.ADD) && (opcode != IntcodeVm.MULTIPLY)) {
+                    return null;
+                }
+                
+                Affine lhs = read(memory, ip + 1);
+                Affine rhs = read(memory, ip + 2);
+                int result = address(memory, ip + 3);
+                
+                if ((lhs == null) || (rhs == null)) {
+                    memory[result] = null;
+                } else if (opcode == IntcodeVm.ADD) {
+                    memory[result] = lhs.add(rhs);
+                } else if (lhs.isConstant()) {
+                    memory[result] = rhs.scale(lhs.constant);
+                } else if (rhs.isConstant()) {
+                    memory[result] = lhs.scale(rhs.constant);
+                } else {
+                    memory[result] = null;      // nonlinear
+                }
+            }
+        } catch (IllegalStateException | ArithmeticException e) {
+            return null;
+        }
+    }
+    
+    /** Return the constant at an address, or throw IllegalStateException if it isn't one. */
+    static long constantAt(Affine[] memory, int address) {
+        if ((address < 0) || (address >= memory.length) || (memory[address] == null) || !memory[address].isConstant()) {
+            throw new IllegalStateException("Value at " + address + " is not a known constant");
+        }
+        
+        return memory[address].constant;
+    }
+    
+    /**
+     * Return the value at the address stored at an address. A read through an address that depends on the inputs is 
+     * unknown (null) rather than a failure, since the value may well be overwritten before anything uses it.
+     */
+    static Affine read(Affine[] memory, int address) {
+        Affine pointer = memory[address];
+        if ((pointer == null) || !pointer.isConstant() || (pointer.constant < 0) || (pointer.constant >= memory.length)) {
+            return null;
+        }
+        
+        return memory[(int) pointer.constant];
+    }
+    
+    /** Return the constant address stored at an address, or throw IllegalStateException if it isn't a valid one. */
+    static int address(Affine[] memory, int address) {
+        long value = constantAt(memory, address);
+        if ((value < 0) || (value >= memory.length)) {
+            throw new IllegalStateException(String.format("Address %d at %d is outside memory", value, address));
+        }
+        
+        return (int) value;
+    }
+    
+    /**
+     * Solve expression == target for 0 <= noun <= maxNoun and 0 <= verb <= maxVerb, as a linear Diophantine equation.
+     *
+     * @return { noun, verb } with the smallest noun (then verb) that solves it, or null if there is none
+     */
+    public static long[] solve(Affine expression, long target, long maxNoun, long maxVerb) {
+        long a = expression.noun;
+        long b = expression.verb;
+        long r = Math.subtractExact(target, expression.constant);
+        
+        if ((a == 0) && (b == 0)) {
+            return (r == 0) ? new long[] { 0, 0 } : null;
+        } else if (b == 0) {
+            return ((r % a == 0) && inRange(r / a, maxNoun)) ? new long[] { r / a, 0 } : null;
+        } else if (a == 0) {
+            return ((r % b == 0) && inRange(r / b, maxVerb)) ? new long[] { 0, r / b } : null;
+        }
+        
+        // a*x + b*y = g, so the solutions are noun = n0 + k*(b/g), verb = v0 - k*(a/g)
+        long[] xyg = extendedGcd(Math.abs(a), Math.abs(b));
+        long g = xyg[2];
+        if (r % g != 0) {
+            return null;
+        }
+        
+        long n0 = Math.multiplyExact(xyg[0] * Long.signum(a), r / g);
+        long v0 = Math.multiplyExact(xyg[1] * Long.signum(b), r / g);
+        long nounStep = b / g;
+        long verbStep = -a / g;
+        
+        long[] k = { Long.MIN_VALUE, Long.MAX_VALUE };
+        constrain(k, n0, nounStep, maxNoun);
+        constrain(k, v0, verbStep, maxVerb);
+        if (k[0] > k[1]) {
+            return null;
+        }
+        
+        long best = (nounStep > 0) ? k[0] : k[1];
+        return new long[] { n0 + best*nounStep, v0 + best*verbStep };
+    }
+    
+    static boolean inRange(long value, long max) {
+        return (value >= 0) && (value <= max);
+    }
+    
+    /** Narrow the range of k, k[0]..k[1], to those where 0 <= base + k*step <= max (step is non-zero). */
+    static void constrain(long[] k, long base, long step, long max) {
+        long lo = (step > 0) ? ceilDiv(-base, step) : ceilDiv(max - base, step);
+        long hi = (step > 0) ? Math.floorDiv(max - base, step) : Math.floorDiv(-base, step);
+        k[0] = Math.max(k[0], lo);
+        k[1] = Math.min(k[1], hi);
+    }
+    
+    static long ceilDiv(long x, long y) {
+        return -Math.floorDiv(-x, y);
+    }
+    
+    /** Return { x, y, g } with a*x + b*y = g = gcd(a, b), for non-negative a and b. */
+    static long[] extendedGcd(long a, long b) {
+        if (b == 0) {
+            return new long[] { 1, 0, a };
+        }
+        
+        long[] next = extendedGcd(b, a % b);
+        return new long[] { next[1], next[0] - (a / b) * next[1], next[2] };
+    }
+}
@@ -1,6 +1,10 @@
 package com.verde.advent.y2019.d2;
 
-import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.verde.advent.y2019.d2.IntcodeVm.MemoryMode;
 
 /**
  * --- Day 2: 1202 Program Alarm ---
@@ -114,33 +118,133 @@ public class Y2019D02 {
     }
         
     public static int runProgram(int[] inputs, int fixGravityAssistNoun, int fixGravityAssistVerb) {
-        // Use a copy of the data, since we don't know if the inputs will be used in the future
-        inputs = Arrays.copyOf(inputs, inputs.length);
+        // The VM works on its own copy of the program, so the inputs can be used again
+        IntcodeVm vm = new IntcodeVm(inputs);
 
         // If repairing gravity assist, then apply the required changes
         if ((fixGravityAssistNoun >= 0) && (fixGravityAssistVerb >= 0)) {
-            inputs[1] = fixGravityAssistNoun;
-            inputs[2] = fixGravityAssistVerb;
+            vm.poke(1, fixGravityAssistNoun);
+            vm.poke(2, fixGravityAssistVerb);
         }
         
-        boolean done = false;
-        for (int opCodeIndex = 0; !done; opCodeIndex += 4) {
-            int opCode = inputs[opCodeIndex];
-            
-            if ((opCode == 1) || (opCode == 2)) { 
-                int lhsRef = inputs[opCodeIndex + 1];
-                int rhsRef = inputs[opCodeIndex + 2];
-                int resultRef = inputs[opCodeIndex + 3];
+        return (int) vm.run().peek(0);
+    }
+    
+    /**
+     * Find a noun and verb, each between 0 and 99, for which the program leaves target at address 0.
+     * 
+     * @see #findNounVerb(long[], MemoryMode, long, int, int, ForkJoinPool)
+     */
+    public static long[] findNounVerb(int[] inputs, long target) {
+        return findNounVerb(IntcodeVm.toLongs(inputs), MemoryMode.INT, target, 99, 99, ForkJoinPool.commonPool());
+    }
+    
+    /**
+     * Search nouns 0..maxNoun and verbs 0..maxVerb in parallel for a pair that leaves target at address 0. 
+     * Each task reuses a single VM (and so a single memory buffer) for all the candidates in its rows of verbs, 
+     * and the search stops as soon as any worker finds a match. Candidates that make the program fail are misses.
+     * 
+     * @return { noun, verb } for the first match found (not necessarily the smallest), or null if there is none
+     */
+    public static long[] findNounVerb(long[] program, MemoryMode mode, long target, int maxNoun, int maxVerb, ForkJoinPool pool) {
+        NounVerbSearch search = new NounVerbSearch(program, mode, target, maxVerb);
+        pool.invoke(search.new RowTask(0, maxNoun + 1));
+        return search.found.get();
+    }
+    
+    /**
+     * Find the noun and verb (each between 0 and 99) for which the program leaves target at address 0. When the result is
+     * an affine function of the noun and verb, it is solved for directly; otherwise, or if that finds no answer that holds 
+     * on the (32 bit) VM, this falls back to a parallel search.
+     * 
+     * @return { noun, verb }, or null if there is none
+     */
+    public static long[] solveNounVerb(int[] inputs, long target) {
+        long[] program = IntcodeVm.toLongs(inputs);
+        SymbolicIntcode.Affine result = SymbolicIntcode.evaluate(program);
+        
+        if (result != null) {
+            try {
+                long[] nounVerb = SymbolicIntcode.solve(result, target, 99, 99);
+                
+                // The VM wraps to 32 bits, but the solution is exact: so an answer must be checked on the VM, and no 
+                // answer proves nothing, since the target might only be reached by wrapping
+                if ((nounVerb != null) && (new IntcodeVm(inputs).run(nounVerb[0], nounVerb[1]) == target)) {
+                    return nounVerb;
+                }
+            } catch (ArithmeticException e) {
+                // Too large to solve exactly, so search instead
+            }
+        }
+        
+        return findNounVerb(inputs, target);
+    }
+    
+    /**
+     * NounVerbSearch holds the shared state of one search: the program, and the match once there is one. Each leaf task 
+     * makes one VM for all the rows it searches, sharing the program as its template, so nothing outlives the search.
+     */
+    static class NounVerbSearch {
+        static final int ROWS_PER_TASK = 1;     // each row is maxVerb + 1 program runs
+        
+        final long[] program;
+        final MemoryMode mode;
+        final long target;
+        final int maxVerb;
+        final AtomicReference<long[]> found = new AtomicReference<long[]>();
+        
+        NounVerbSearch(long[] program, MemoryMode mode, long target, int maxVerb) {
+            this.program = program.clone();
+            this.mode = mode;
+            this.target = target;
+            this.maxVerb = maxVerb;
+        }
+        
+        void searchRow(IntcodeVm vm, int noun) {
+            for (int verb=0; (verb <= maxVerb) && (found.get() == null); ++verb) {
+                boolean match;
+                try {
+                    match = vm.run(noun, verb) == target;
+                } catch (IllegalStateException e) {
+                    match = false;
+                }
                 
-                inputs[resultRef] = 
-                        (opCode == 1) 
-                        ? inputs[lhsRef] + inputs[rhsRef] 
-                        : inputs[lhsRef] * inputs[rhsRef];
-            } else if (opCode == 99) {
-                done = true;
+                if (match) {
+                    found.compareAndSet(null, new long[] { noun, verb });
+                }
             }
         }
         
-        return inputs[0];
+        /**
+         * RowTask searches the nouns [from, to), splitting the range in half until it is small enough.
+         */
+        class RowTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+            
+            final int from;
+            final int to;
+            
+            RowTask(int from, int to) {
+                this.from = from;
+                this.to = to;
+            }
+            
+            @Override
+            protected void compute() {
+                if (found.get() != null) {
+                    return;
+                }
+                
+                if (to - from <= ROWS_PER_TASK) {
+                    IntcodeVm vm = new IntcodeVm(program, mode, false);
+                    for (int noun=from; noun<to; ++noun) {
+                        searchRow(vm, noun);
+                    }
+                } else {
+                    int middle = (from + to) >>> 1;
+                    invokeAll(new RowTask(from, middle), new RowTask(middle, to));
+                }
+            }
+        }
     }
 }
@@ -1,7 +1,9 @@
 package com.verde.advent.y2019.d3;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -13,7 +15,7 @@ import java.util.function.Function;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
-import com.verde.advent.AdventUtils;
+import com.verde.advent.LongIntMap;
 import com.verde.advent.Point2D;
 import com.verde.advent.SetUtils;
 
@@ -155,19 +157,215 @@ public class Y2019D03 {
         return pts;
     }
     
+    /**
+     * Segment is one straight run of a wire: its fixed coordinate (y for a horizontal run, x for a vertical one), 
+     * the range of the other coordinate from start to end, and how many steps along the wire its start is.
+     */
+    public static class Segment {
+        final boolean horizontal;
+        final int fixed;
+        final int from;
+        final int to;
+        final int steps;
+        
+        public Segment(boolean horizontal, int fixed, int from, int to, int steps) {
+            this.horizontal = horizontal;
+            this.fixed = fixed;
+            this.from = from;
+            this.to = to;
+            this.steps = steps;
+        }
+        
+        int lo() {
+            return Math.min(from, to);
+        }
+        
+        int hi() {
+            return Math.max(from, to);
+        }
+        
+        /** Return the steps along the wire to the point at the given coordinate along this segment. */
+        int stepsTo(int along) {
+            return steps + Math.abs(along - from);
+        }
+        
+        int x(int along) {
+            return horizontal ? along : fixed;
+        }
+        
+        int y(int along) {
+            return horizontal ? fixed : along;
+        }
+    }
+    
+    /**
+     * CrossingVisitor is told about each point where two wires cross, and the combined steps both wires take to reach it.
+     */
+    public interface CrossingVisitor {
+        void visit(int x, int y, int steps);
+    }
+    
+    /**
+     * Parse a path into its segments, so the wire takes memory in proportion to its instructions rather than its length.
+     */
+    public static List<Segment> parseSegments(String path) {
+        List<Segment> segments = new ArrayList<Segment>();
+        int x = 0;
+        int y = 0;
+        int steps = 0;
+        
+        for (String part : path.split(",")) {
+            Point2D delta = DELTAS_BY_DIR.get(part.substring(0, 1));
+            int count = Integer.parseInt(part.substring(1));
+            if ((delta == null) || (count == 0)) {
+                continue;
+            }
+            
+            int nextX = x + count * delta.getX();
+            int nextY = y + count * delta.getY();
+            segments.add((delta.getY() == 0) 
+                    ? new Segment(true, y, x, nextX, steps) 
+                    : new Segment(false, x, y, nextY, steps));
+            
+            x = nextX;
+            y = nextY;
+            steps += count;
+        }
+        
+        return segments;
+    }
+    
     public static int getMinManhattanDistance(String path1, String path2) {
-        return getMinDistance(parsePoints(path1), parsePoints(path2), Point2D::getManhattanDistanceToOrigin);
+        int[] min = { Integer.MAX_VALUE };
+        forEachCrossing(parseSegments(path1), parseSegments(path2), (x, y, steps) -> min[0] = Math.min(min[0], Math.abs(x) + Math.abs(y)));
+        return (min[0] == Integer.MAX_VALUE) ? -1 : min[0];
     }
-
+    
     public static int getMinBestSteps(String path1, String path2) {
-        List<Point2D> path1Pts = parsePoints(path1);
-        List<Point2D> path2Pts = parsePoints(path2);
-
-        // Use AdventUtils.indexOf() to find the 0-based index of the intersection point in each path,
-        // and then add 1 to that because the path does not contain the origin (so we add that back in with a +1).
-        return getMinDistance(path1Pts, path2Pts, p -> (AdventUtils.indexOf(path1Pts, p) + 1) + (AdventUtils.indexOf(path2Pts, p) + 1));
+        int[] min = { Integer.MAX_VALUE };
+        forEachCrossing(parseSegments(path1), parseSegments(path2), (x, y, steps) -> min[0] = Math.min(min[0], steps));
+        return (min[0] == Integer.MAX_VALUE) ? -1 : min[0];
     }
-
+    
+    /**
+     * As {@link #getMinBestSteps(String, String)}, but by tracing the wires cell by cell: the first wire records the
+     * steps of its first visit to each cell, and the second looks each of its cells up as it goes. No points or lists
+     * are allocated; the cells are packed into longs in a {@link LongIntMap}.
+     */
+    public static int getMinBestStepsByTracing(String path1, String path2) {
+        LongIntMap firstSteps = new LongIntMap(path1.length() * 32);
+        trace(path1, (x, y, steps) -> firstSteps.putIfAbsent(LongIntMap.pack(x, y), steps));
+        
+        int[] min = { Integer.MAX_VALUE };
+        trace(path2, (x, y, steps) -> {
+            int steps1 = firstSteps.get(LongIntMap.pack(x, y), -1);
+            if ((steps1 >= 0) && ((x != 0) || (y != 0))) {
+                min[0] = Math.min(min[0], steps1 + steps);
+            }
+        });
+        
+        return (min[0] == Integer.MAX_VALUE) ? -1 : min[0];
+    }
+    
+    /**
+     * Tracer is told about each cell a wire passes through, and the steps taken to reach it.
+     */
+    public interface Tracer {
+        void step(int x, int y, int steps);
+    }
+    
+    /**
+     * Follow a path one cell at a time, parsing the instructions in place rather than splitting the path.
+     */
+    public static void trace(String path, Tracer tracer) {
+        int x = 0;
+        int y = 0;
+        int steps = 0;
+        
+        for (int i=0; i<path.length(); ++i) {   // skips the comma after each instruction
+            char direction = path.charAt(i++);
+            int count = 0;
+            for (; (i < path.length()) && Character.isDigit(path.charAt(i)); ++i) {
+                count = (10 * count) + (path.charAt(i) - '0');
+            }
+            
+            int dx = (direction == 'L') ? -1 : (direction == 'R') ? +1 : 0;
+            int dy = (direction == 'D') ? -1 : (direction == 'U') ? +1 : 0;
+            for (int n=0; n<count; ++n) {
+                x += dx;
+                y += dy;
+                tracer.step(x, y, ++steps);
+            }
+        }
+    }
+    
+    /**
+     * Visit the points (other than the origin) where the wires cross. The second wire's horizontal and vertical segments
+     * are sorted by their fixed coordinate, so each segment of the first wire binary searches for the ones it can meet.
+     * <p>
+     * A point may be visited more than once, with steps from a later pass of a wire; the smallest steps for a point
+     * always come from the first pass of each wire, so minimums are unaffected. Where two segments overlap along a line,
+     * only the points that can be the closest or the fewest steps are visited: the steps change linearly along the
+     * overlap, so those are its ends and the points nearest the origin.
+     */
+    public static void forEachCrossing(List<Segment> wire1, List<Segment> wire2, CrossingVisitor visitor) {
+        Segment[] horizontal = wire2.stream().filter(seg -> seg.horizontal).toArray(Segment[]::new);
+        Segment[] vertical = wire2.stream().filter(seg -> !seg.horizontal).toArray(Segment[]::new);
+        Comparator<Segment> byFixed = Comparator.comparingInt(seg -> seg.fixed);
+        Arrays.sort(horizontal, byFixed);
+        Arrays.sort(vertical, byFixed);
+        
+        for (Segment seg : wire1) {
+            Segment[] perpendicular = seg.horizontal ? vertical : horizontal;
+            Segment[] parallel = seg.horizontal ? horizontal : vertical;
+            
+            // Perpendicular segments that lie within this one's range, and span its line
+            for (int i=lowerBound(perpendicular, seg.lo()); (i < perpendicular.length) && (perpendicular[i].fixed <= seg.hi()); ++i) {
+                Segment other = perpendicular[i];
+                if ((other.lo() <= seg.fixed) && (seg.fixed <= other.hi())) {
+                    visit(seg, other.fixed, other, seg.fixed, visitor);
+                }
+            }
+            
+            // Parallel segments on the same line, that overlap this one
+            for (int i=lowerBound(parallel, seg.fixed); (i < parallel.length) && (parallel[i].fixed == seg.fixed); ++i) {
+                Segment other = parallel[i];
+                int lo = Math.max(seg.lo(), other.lo());
+                int hi = Math.min(seg.hi(), other.hi());
+                
+                for (int along : new int[] { lo, lo + 1, hi - 1, hi, -1, 0, 1 }) {
+                    if ((lo <= along) && (along <= hi)) {
+                        visit(seg, along, other, along, visitor);
+                    }
+                }
+            }
+        }
+    }
+    
+    static void visit(Segment seg, int along, Segment other, int otherAlong, CrossingVisitor visitor) {
+        int x = seg.x(along);
+        int y = seg.y(along);
+        if ((x != 0) || (y != 0)) {
+            visitor.visit(x, y, seg.stepsTo(along) + other.stepsTo(otherAlong));
+        }
+    }
+    
+    /** Return the index of the first segment whose fixed coordinate is at least value. */
+    static int lowerBound(Segment[] segments, int value) {
+        int lo = 0;
+        int hi = segments.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (segments[mid].fixed < value) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        
+        return lo;
+    }
+    
     public static int getMinDistance(List<Point2D> path1Pts, List<Point2D> path2Pts, Function<Point2D,Integer> toDistance) {
         Set<Point2D> intersections = SetUtils.intersection(new HashSet<Point2D>(path1Pts),  new HashSet<Point2D>(path2Pts));
         
@@ -1,35 +1,133 @@
 package com.verde.advent.y2019.d4;
 
-import java.util.function.Predicate;
-import java.util.stream.IntStream;
+import java.util.function.LongConsumer;
 
+/**
+ * --- Day 4: Secure Container ---
+ * A password is a six-digit number within the puzzle's range, where two adjacent digits are the same (like 22 in 122345),
+ * and going from left to right, the digits never decrease; they only ever increase or stay the same (like 111123 or 135679).
+ *
+ * How many different passwords within the range given in your puzzle input meet these criteria?
+ *
+ * @author bverde
+ */
 public class Y2019D04 {
-    public long numValidPasswords(int min, int max) {
-        Predicate<String> hasTwoAdjacent = (s) -> {
-            for (int i=0; i<s.length()-1; ++i) {
-                if (s.charAt(i) == s.charAt(i+1)) {
-                    return true;
-                }
-            } 
-            return false;
-        };
-
-        Predicate<String> isNotDecreasing = (s) -> {
-            for (int i=0; i<s.length()-1; ++i) {
-                if (s.charAt(i) < s.charAt(i+1)) {
-                    return false;
+    public static final int MAX_DIGITS = 18;
+    
+    static final long[] POW10 = new long[MAX_DIGITS + 1];
+    
+    // COMPLETIONS[n][d][p] counts the ways to append n non-decreasing digits after the digit d, so that the whole number
+    // has a pair of equal adjacent digits (p is 1 if the digits so far already have one)
+    static final long[][][] COMPLETIONS = new long[MAX_DIGITS + 1][10][2];
+    static {
+        POW10[0] = 1;
+        for (int n=1; n<=MAX_DIGITS; ++n) {
+            POW10[n] = 10 * POW10[n - 1];
+        }
+        
+        for (int d=0; d<10; ++d) {
+            COMPLETIONS[0][d][1] = 1;
+        }
+        for (int n=1; n<=MAX_DIGITS; ++n) {
+            for (int d=0; d<10; ++d) {
+                for (int p=0; p<2; ++p) {
+                    for (int next=d; next<10; ++next) {
+                        COMPLETIONS[n][d][p] += COMPLETIONS[n - 1][next][((p == 1) || (next == d)) ? 1 : 0];
+                    }
                 }
-            } 
-            return true;
-        };
-        
-        return 
-                IntStream
-                .rangeClosed(min, max)
-                .mapToObj(i -> String.valueOf(i))
-                .filter(s -> s.length() == 6)
-                .filter(hasTwoAdjacent)
-                .filter(isNotDecreasing)
-                .count();
+            }
+        }
+    }
+    
+    public long numValidPasswords(int min, int max) {
+        long[] count = { 0 };
+        forEachValidPassword(6, min, max, password -> ++count[0]);
+        return count[0];
+    }
+    
+    /**
+     * Generate the valid passwords with the given number of digits in [min, max], in increasing order. This is a
+     * recursive odometer over the digits, that only ever tries digits at least as large as the one before, tracks the
+     * adjacent pair as it goes, and skips any prefix whose smallest and largest completions fall outside the range.
+     */
+    public static void forEachValidPassword(int digits, long min, long max, LongConsumer consumer) {
+        if ((digits < 1) || (digits > MAX_DIGITS)) {
+            throw new IllegalArgumentException(String.format("Passwords must have 1 to %d digits: %d", MAX_DIGITS, digits));
+        }
+        
+        odometer(new int[digits], 0, 0, false, min, max, consumer);
+    }
+    
+    static void odometer(int[] digits, int pos, long prefix, boolean hasPair, long min, long max, LongConsumer consumer) {
+        if (pos == digits.length) {
+            if (hasPair) {
+                consumer.accept(prefix);
+            }
+            return;
+        }
+        
+        int remaining = digits.length - pos - 1;
+        for (int d=(pos == 0) ? 1 : digits[pos - 1]; d<=9; ++d) {
+            long value = (10 * prefix) + d;
+            long lowest = (value * POW10[remaining]) + (d * (POW10[remaining] - 1) / 9);     // d repeated
+            long highest = (value * POW10[remaining]) + (POW10[remaining] - 1);             // 9 repeated
+            if (lowest > max) {
+                break;
+            } else if (highest < min) {
+                continue;
+            }
+            
+            digits[pos] = d;
+            odometer(digits, pos + 1, value, hasPair || ((pos > 0) && (digits[pos - 1] == d)), min, max, consumer);
+        }
+    }
+    
+    /**
+     * Count the valid passwords (of any length up to 18 digits) in [min, max], without generating them: a digit DP
+     * over the digits of each bound, using precomputed counts of the ways to finish a prefix.
+     */
+    public static long countValidPasswords(long min, long max) {
+        if ((min < 0) || (max >= POW10[MAX_DIGITS])) {
+            throw new IllegalArgumentException(String.format("Range [%d, %d] is outside [0, 10^%d)", min, max, MAX_DIGITS));
+        }
+        
+        return (min > max) ? 0 : countUpTo(max) - countUpTo(min - 1);
+    }
+    
+    /** Count the valid passwords in [1, n]. */
+    static long countUpTo(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        
+        String bound = Long.toString(n);
+        int length = bound.length();
+        long total = 0;
+        
+        // Every valid number shorter than the bound (whose digits, being non-decreasing, can't include a 0)
+        for (int shorter=1; shorter<length; ++shorter) {
+            for (int d=1; d<=9; ++d) {
+                total += COMPLETIONS[shorter - 1][d][0];
+            }
+        }
+        
+        // Numbers as long as the bound: follow its digits, counting everything that drops below it at each position
+        int previous = 0;
+        boolean hasPair = false;
+        for (int pos=0; pos<length; ++pos) {
+            int limit = bound.charAt(pos) - '0';
+            for (int d=Math.max(previous, 1); d<limit; ++d) {
+                total += COMPLETIONS[length - pos - 1][d][(hasPair || ((pos > 0) && (d == previous))) ? 1 : 0];
+            }
+            
+            if (limit < Math.max(previous, 1)) {
+                return total;   // the bound's own digits decrease here, so nothing else with this prefix is valid
+            }
+            
+            hasPair |= (pos > 0) && (limit == previous);
+            previous = limit;
+        }
+        
+        return total + (hasPair ? 1 : 0);
     }
 }
@@ -1,6 +1,10 @@
 package com.verde.advent.y2018.d1;
 
 import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+
 import org.junit.Test;
 
 
@@ -49,6 +53,55 @@ public class TestDay1 {
     public void testStarTwoInput() {
         long sum = Day1.findFirstRepeatedSum(STAR_INPUTS, 2);    // 69074
         System.out.printf("First Sum Repeated 2 Times: %d\n", sum);
+        assertEquals("star input two incorrect", Day1.loopToRepeatedSum(STAR_INPUTS, 2), sum);
+    }
+    
+    @Test
+    public void testFindFirstRepeat() {
+        // Compare with looping, on small inputs that are sure to repeat (the running sum stays within a small range)
+        Random random = new Random(50);
+        for (int round=0; round<500; ++round) {
+            int[] inputs = new int[1 + random.nextInt(12)];
+            for (int i=0; i<inputs.length; ++i) {
+                inputs[i] = random.nextInt(21) - 10;
+            }
+            int drift = Arrays.stream(inputs).sum();
+            if ((drift != 0) && !repeats(inputs)) {
+                continue;
+            }
+            
+            assertEquals("findFirstRepeat() incorrect for " + Arrays.toString(inputs), Day1.loopToRepeatedSum(inputs, 2), Day1.findFirstRepeat(inputs));
+        }
+        
+        // A loop would need ten million passes for these
+        assertEquals("findFirstRepeat() incorrect for a slow drift", 10000000, Day1.findFirstRepeat(new int[] { +10000000, -9999999 }));
+        assertEquals("findFirstRepeat() incorrect for a slow negative drift", -10000000, Day1.findFirstRepeat(new int[] { -10000000, +9999999 }));
+        
+        // Other counts still loop
+        assertEquals("findFirstRepeatedSum() incorrect for 3 repetitions", 0, Day1.findFirstRepeatedSum(new int[] { +1, -1 }, 3));
+    }
+    
+    @Test(expected = IllegalStateException.class)
+    public void testFindFirstRepeatNeverRepeats() {
+        Day1.findFirstRepeat(new int[] { +1, +1 });
+    }
+    
+    /** Whether some pair of prefix sums differ by a multiple of the drift, so the sums must repeat eventually. */
+    static boolean repeats(int[] inputs) {
+        int drift = Arrays.stream(inputs).sum();
+        int[] prefix = new int[inputs.length];
+        for (int i=1; i<inputs.length; ++i) {
+            prefix[i] = prefix[i-1] + inputs[i-1];
+        }
+        
+        for (int i=0; i<prefix.length; ++i) {
+            for (int j=0; j<prefix.length; ++j) {
+                if ((i != j) && ((prefix[i] - prefix[j]) % drift == 0)) {
+                    return true;
+                }
+            }
+        }
+        return false;
     }
 
 }
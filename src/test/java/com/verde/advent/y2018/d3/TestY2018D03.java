@@ -1,7 +1,13 @@
 package com.verde.advent.y2018.d3;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
 import org.junit.Test;
 import com.verde.advent.day3.*;
 import com.verde.advent.y2018.d1.Day1;
@@ -55,15 +61,161 @@ public class TestY2018D03 {
         }
     }
     
+    @Test
+    public void testStakeClaims() {
+        // Compare the difference array against filling in each claim square by square
+        Random random = new Random(3);
+        List<Rect> claims = new ArrayList<Rect>();
+        for (int i=0; i<200; ++i) {
+            int x = random.nextInt(50);
+            int y = random.nextInt(50);
+            claims.add(new Rect(String.valueOf(i), x, y, x + random.nextInt(20), y + random.nextInt(20)));
+        }
+        
+        int[][] counts = Y2018D03.stakeClaims(claims);
+        int[][] expected = new int[counts.length][counts[0].length];
+        for (Rect r : claims) {
+            for (int x=r.getXMin(); x<r.getXMax(); ++x) {
+                for (int y=r.getYMin(); y<r.getYMax(); ++y) {
+                    ++expected[x][y];
+                }
+            }
+        }
+        
+        for (int x=0; x<counts.length; ++x) {
+            assertArrayEquals("stakeClaims() incorrect", expected[x], counts[x]);
+        }
+    }
+    
+    @Test
+    public void testRectIndex() {
+        // Compare the index's answers against checking every pair
+        Random random = new Random(49);
+        List<Rect> claims = new ArrayList<Rect>();
+        for (int i=0; i<500; ++i) {
+            int x = random.nextInt(1000);
+            int y = random.nextInt(1000);
+            claims.add(new Rect(String.valueOf(i), x, y, x + random.nextInt(30), y + random.nextInt(30)));
+        }
+        
+        RectIndex index = new RectIndex(claims);
+        List<Rect> loners = new ArrayList<Rect>();
+        for (Rect r : claims) {
+            List<Rect> expected = new ArrayList<Rect>();
+            for (Rect other : claims) {
+                if ((other != r) && (other.intersect(r) != null)) {
+                    expected.add(other);
+                }
+            }
+            
+            List<Rect> actual = index.overlapping(r);
+            assertEquals("overlapping() incorrect", new HashSet<Rect>(expected), new HashSet<Rect>(actual));
+            assertEquals("overlapping() has duplicates", expected.size(), actual.size());
+            if (expected.isEmpty()) {
+                loners.add(r);
+            }
+        }
+        assertEquals("loners() incorrect", loners, index.loners());
+        
+        for (int i=0; i<200; ++i) {
+            int x = random.nextInt(1030);
+            int y = random.nextInt(1030);
+            List<Rect> expected = new ArrayList<Rect>();
+            for (Rect r : claims) {
+                if (r.contains(x, y)) {
+                    expected.add(r);
+                }
+            }
+            
+            assertEquals("containing() incorrect", new HashSet<Rect>(expected), new HashSet<Rect>(index.containing(x, y)));
+        }
+        
+        assertEquals("empty index has no loners", 0, new RectIndex(new ArrayList<Rect>()).loners().size());
+    }
+    
+    @Test
+    public void testGetAreaWithMultipleClaims() {
+        Random random = new Random(48);
+        for (int round=0; round<20; ++round) {
+            String[] specs = new String[1 + random.nextInt(60)];
+            for (int i=0; i<specs.length; ++i) {
+                specs[i] = String.format("#%d @ %d,%d: %dx%d", i, random.nextInt(40), random.nextInt(40), random.nextInt(15), random.nextInt(15));
+            }
+            
+            for (int minClaims=1; minClaims<=4; ++minClaims) {
+                assertEquals("getAreaWithMultipleClaims() incorrect", 
+                        Y2018D03.getNumSquareInchesWithMultipleClaims(specs, minClaims), Y2018D03.getAreaWithMultipleClaims(specs, minClaims));
+            }
+        }
+        
+        assertEquals("star input one by sweep line is incorrect", 109716, Y2018D03.getAreaWithMultipleClaims(STAR_INPUTS, 2));
+        
+        // Far too large for a grid
+        String[] large = { "#1 @ 0,0: 1000000x1000000", "#2 @ 500000,500000: 1000000x1000000", "#3 @ 999999,0: 1x2000000" };
+        assertEquals("large overlap area incorrect", (500000L * 500000L) + 1000000L, Y2018D03.getAreaWithMultipleClaims(large, 2));
+        assertEquals("large triple overlap area incorrect", 500000L, Y2018D03.getAreaWithMultipleClaims(large, 3));
+        assertEquals("more claims than there are should cover nothing", 0, Y2018D03.getAreaWithMultipleClaims(large, Integer.MAX_VALUE));
+        
+        // Nested claims, far too many levels for a tree: only the innermost square is under all of them
+        int n = 20000;
+        List<Rect> nested = new ArrayList<Rect>();
+        for (int i=0; i<n; ++i) {
+            nested.add(new Rect(String.valueOf(i), i, i, 2*n - 1 - i, 2*n - 1 - i));
+        }
+        assertEquals("nested area under every claim incorrect", 1, Y2018D03.getAreaWithMultipleClaims(nested, n));
+        assertEquals("nested area under half the claims incorrect", (long) (n + 1) * (n + 1), Y2018D03.getAreaWithMultipleClaims(nested, n / 2));
+    }
+    
+    @Test
+    public void testCoverage() {
+        // Both kinds of coverage against counting each gap, as random intervals come and go
+        Random random = new Random(4818);
+        int[] ys = random.ints(200, 0, 10000).sorted().distinct().toArray();
+        for (int k=1; k<=30; k+=7) {
+            Y2018D03.Coverage[] coverages = { new Y2018D03.CoverageTree(ys, k), new Y2018D03.CoverageBlocks(ys, k) };
+            int[] counts = new int[ys.length - 1];
+            List<int[]> intervals = new ArrayList<int[]>();
+            
+            for (int step=0; step<2000; ++step) {
+                int[] interval;
+                int delta;
+                if (!intervals.isEmpty() && random.nextInt(3) == 0) {
+                    interval = intervals.remove(random.nextInt(intervals.size()));
+                    delta = -1;
+                } else {
+                    int from = random.nextInt(ys.length - 1);
+                    interval = new int[] { from, from + 1 + random.nextInt(ys.length - 1 - from) };
+                    intervals.add(interval);
+                    delta = +1;
+                }
+                
+                long expected = 0;
+                for (int g=interval[0]; g<interval[1]; ++g) {
+                    counts[g] += delta;
+                }
+                for (int g=0; g<counts.length; ++g) {
+                    expected += (counts[g] >= k) ? ys[g + 1] - ys[g] : 0;
+                }
+                
+                for (Y2018D03.Coverage coverage : coverages) {
+                    coverage.update(interval[0], interval[1], delta);
+                    assertEquals(String.format("%s incorrect for k=%d", coverage.getClass().getSimpleName(), k), expected, coverage.getCovered());
+                }
+            }
+        }
+    }
+    
     @Test
     public void testStarOneInput() {
         int numSquareInches = Y2018D03.getNumSquareInchesWithMultipleClaims(STAR_INPUTS, 2);
         System.out.printf("NumSquareInchesWithMultipleClaims: %d\n", numSquareInches);
+        assertEquals("star input one is incorrect", 109716, numSquareInches);
     }
 
     @Test
     public void testStarTwoInput() {
         String soleClaim = Y2018D03.getSoleClaim(STAR_INPUTS);
         System.out.printf("GetSoleClaim: %s\n", soleClaim);
+        assertEquals("star input two is incorrect", "124", soleClaim);
     }
 }
@@ -1,13 +1,23 @@
 package com.verde.advent.y2019.d2;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import org.junit.Test;
 
 import com.verde.advent.AdventUtils;
 import com.verde.advent.y2018.d3.Y2018D03;
+import com.verde.advent.y2019.d2.IntcodeVm.MemoryMode;
 
 public class TestY2019D02 {
     public static final int[] STAR_INPUTS = {
@@ -51,5 +61,250 @@ public class TestY2019D02 {
             }
         }
     }
+
+    @Test
+    public void testIntcodeVmReset() {
+        IntcodeVm vm = new IntcodeVm(STAR_INPUTS);
+        
+        assertEquals("run(noun, verb) incorrect", 4462686, vm.run(12, 2));
+        long steps = vm.getSteps();
+        assertTrue("vm should have halted", vm.isHalted());
+        assertEquals("add and multiply counts should make up the steps", steps, 
+                vm.getInstructionCount(IntcodeVm.ADD) + vm.getInstructionCount(IntcodeVm.MULTIPLY) + vm.getInstructionCount(IntcodeVm.HALT));
+        
+        // Running again must start from the original program, not the memory the last run left behind
+        assertEquals("second run(noun, verb) incorrect", 4462686, vm.run(12, 2));
+        assertEquals("steps should be counted per run", steps, vm.getSteps());
+        assertEquals("reset() should restore the program", STAR_INPUTS[1], vm.reset().peek(1));
+        assertEquals("program template should be untouched", 0, STAR_INPUTS[1]);
+    }
+
+    @Test
+    public void testIntcodeVmMemoryMode() {
+        // 2^20 * 2^20 overflows an int
+        long[] program = { 2,5,5,0,99,1 << 20 };
+        
+        assertEquals("int mode should wrap", 0, new IntcodeVm(program, IntcodeVm.MemoryMode.INT).run().peek(0));
+        assertEquals("long mode should not wrap", 1L << 40, new IntcodeVm(program, IntcodeVm.MemoryMode.LONG).run().peek(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIntcodeVmUnknownOpcode() {
+        Y2019D02.runProgram(new int[] { 1,0,0,0,42,99 });
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIntcodeVmBadAddress() {
+        Y2019D02.runProgram(new int[] { 1,0,100,0,99 });
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testIntcodeVmTruncatedInstruction() {
+        Y2019D02.runProgram(new int[] { 1,0,0,0,1 });
+    }
+
+    @Test
+    public void testFindNounVerb() {
+        long[] nounVerb = Y2019D02.findNounVerb(STAR_INPUTS, 19690720);
+        
+        System.out.printf("Parallel search: noun=%d and verb=%d and 100*noun + verb=%d\n", nounVerb[0], nounVerb[1], (100*nounVerb[0]) + nounVerb[1]);
+        assertEquals("findNounVerb() result incorrect", 19690720, Y2019D02.runProgram(STAR_INPUTS, (int) nounVerb[0], (int) nounVerb[1]));
+        assertEquals("star input two is incorrect", 5936, (100*nounVerb[0]) + nounVerb[1]);
+        assertNull("findNounVerb() should not find an unreachable target", Y2019D02.findNounVerb(STAR_INPUTS, -1));
+    }
+
+    @Test
+    public void testFindNounVerbScaled() {
+        // A generated program: add the table entries at noun and verb, with table[i] = i*i for a larger range
+        int size = 500;
+        long[] program = new long[size];
+        program[0] = 1;
+        program[3] = 0;
+        program[4] = 99;
+        for (int i=5; i<size; ++i) {
+            program[i] = (long) i * i;
+        }
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            long target = (long) 321*321 + (long) 456*456;
+            long[] nounVerb = Y2019D02.findNounVerb(program, MemoryMode.LONG, target, size - 1, size - 1, pool);
+            
+            assertNotNull("findNounVerb() should find the target", nounVerb);
+            assertEquals("findNounVerb() result incorrect", target, new IntcodeVm(program, MemoryMode.LONG).run(nounVerb[0], nounVerb[1]));
+            assertNull("findNounVerb() should miss out-of-range pairs", Y2019D02.findNounVerb(program, MemoryMode.LONG, target, 300, 300, pool));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testSymbolicEvaluate() {
+        SymbolicIntcode.Affine result = SymbolicIntcode.evaluate(IntcodeVm.toLongs(STAR_INPUTS));
+        System.out.printf("Star program leaves %s at address 0\n", result);
+        
+        assertNotNull("star program should be affine", result);
+        IntcodeVm vm = new IntcodeVm(STAR_INPUTS);
+        for (int[] nounVerb : new int[][] { { 0, 0 }, { 12, 2 }, { 59, 36 }, { 99, 99 } }) {
+            assertEquals("evaluate() incorrect", vm.run(nounVerb[0], nounVerb[1]), result.evaluate(nounVerb[0], nounVerb[1]));
+        }
+        
+        // The product of the noun and verb isn't affine
+        assertNull("nonlinear program should not be affine", SymbolicIntcode.evaluate(new long[] { 1,0,0,3,2,1,2,0,99 }));
+    }
+
+    @Test
+    public void testSymbolicSolve() {
+        assertArrayEquals("solve() incorrect", new long[] { 5, 0 }, SymbolicIntcode.solve(new SymbolicIntcode.Affine(5, 3, -2), 20, 99, 99));
+        assertArrayEquals("solve() incorrect", new long[] { 1, 1 }, SymbolicIntcode.solve(new SymbolicIntcode.Affine(0, 4, 6), 10, 99, 99));
+        assertNull("solve() should find no solution", SymbolicIntcode.solve(new SymbolicIntcode.Affine(0, 4, 6), 7, 99, 99));
+        assertNull("solve() should respect the ranges", SymbolicIntcode.solve(new SymbolicIntcode.Affine(0, 1, 1), 200, 99, 99));
+        
+        assertArrayEquals("solveNounVerb() incorrect", new long[] { 59, 36 }, Y2019D02.solveNounVerb(STAR_INPUTS, 19690720));
+        
+        // A nonlinear program falls back to searching
+        long[] nounVerb = Y2019D02.solveNounVerb(new int[] { 1,0,0,3,2,1,2,0,99 }, 12);
+        assertEquals("solveNounVerb() fallback incorrect", 12, nounVerb[0] * nounVerb[1]);
+        
+        // (noun + verb) << 30 only reaches Integer.MIN_VALUE by wrapping, which the exact solution can't see
+        int[] wrapping = new int[111];
+        System.arraycopy(new int[] { 1,0,0,3, 1,1,2,3, 2,3,110,0, 99 }, 0, wrapping, 0, 13);
+        wrapping[110] = 1 << 30;
+        nounVerb = Y2019D02.solveNounVerb(wrapping, Integer.MIN_VALUE);
+        assertNotNull("solveNounVerb() should find a wrapped solution", nounVerb);
+        assertEquals("solveNounVerb() wrapped solution incorrect", Integer.MIN_VALUE, Y2019D02.runProgram(wrapping, (int) nounVerb[0], (int) nounVerb[1]));
+    }
+
+    /** Return a program that reads count values, and writes each one out again plus one. */
+    static long[] incrementProgram(int count) {
+        long[] program = new long[8*count + 3];
+        int value = program.length - 2;
+        int one = program.length - 1;
+        
+        for (int i=0; i<count; ++i) {
+            long[] instructions = { IntcodeVm.INPUT,value, IntcodeVm.ADD,value,one,value, IntcodeVm.OUTPUT,value };
+            System.arraycopy(instructions, 0, program, 8*i, instructions.length);
+        }
+        program[8*count] = IntcodeVm.HALT;
+        program[one] = 1;
+        
+        return program;
+    }
+
+    @Test
+    public void testIntcodeVmPorts() {
+        IntcodeChannel input = new IntcodeChannel(2);
+        IntcodeChannel output = new IntcodeChannel(1);
+        IntcodeVm vm = new IntcodeVm(incrementProgram(2), MemoryMode.LONG).setInput(input).setOutput(output);
+        
+        assertTrue("vm should block on empty input", vm.run().isBlocked());
+        input.offer(10);
+        input.offer(20);
+        assertTrue("vm should block on full output", vm.run().isBlocked());
+        assertEquals("first output incorrect", 11, output.poll());
+        assertTrue("vm should halt", vm.run().isHalted());
+        assertEquals("second output incorrect", 21, output.poll());
+        assertEquals("blocked attempts should not count as steps", 7, vm.getSteps());
+    }
+
+    @Test
+    public void testIntcodeScheduler() {
+        int length = 50;
+        int count = 2000;
+        long[] program = incrementProgram(count);
+        IntcodeScheduler scheduler = new IntcodeScheduler(2);
+        
+        // Chain the VMs with small channels, except at the ends where the test reads and writes
+        IntcodeChannel first = new IntcodeChannel(count);
+        IntcodeChannel channel = first;
+        for (int i=0; i<length; ++i) {
+            IntcodeChannel next = new IntcodeChannel((i == length - 1) ? count : 16);
+            scheduler.add(new IntcodeVm(program, MemoryMode.LONG).setInput(channel).setOutput(next));
+            channel = next;
+        }
+        
+        for (int i=0; i<count; ++i) {
+            first.offer(i);
+        }
+        
+        long start = System.nanoTime();
+        scheduler.run();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("%d VMs passed %d values along in %.1f ms\n", length, count, elapsed / 1e6);
+        
+        assertEquals("output count incorrect", count, channel.size());
+        for (int i=0; i<count; ++i) {
+            assertEquals("output incorrect", i + length, channel.poll());
+        }
+    }
+
+    @Test
+    public void testIntcodeSchedulerRunAgain() {
+        IntcodeChannel input = new IntcodeChannel(1);
+        IntcodeChannel output = new IntcodeChannel(1);
+        IntcodeVm vm = new IntcodeVm(incrementProgram(1), MemoryMode.LONG).setInput(input).setOutput(output);
+        IntcodeScheduler scheduler = new IntcodeScheduler(1).add(vm);
+        
+        input.offer(1);
+        scheduler.run();
+        assertEquals("first run output incorrect", 2, output.poll());
+        
+        // Nothing left to do once every VM has halted
+        scheduler.run();
+        assertTrue("halted vm should stay halted", vm.isHalted());
+        
+        vm.reset();
+        input.offer(5);
+        scheduler.run();
+        assertTrue("vm should halt on the second run", vm.isHalted());
+        assertEquals("second run output incorrect", 6, output.poll());
+    }
+    
+    @Test
+    public void testIntcodeSchedulerFailure() throws InterruptedException {
+        // One VM fails straight away while a chain of others is still busy passing values along
+        int count = 2000;
+        long[] program = incrementProgram(count);
+        IntcodeScheduler scheduler = new IntcodeScheduler(4);
+        scheduler.add(new IntcodeVm(new long[] { 42 }, MemoryMode.LONG));
+        
+        List<IntcodeVm> chain = new ArrayList<IntcodeVm>();
+        IntcodeChannel channel = new IntcodeChannel(count);
+        for (int i=0; i<count; ++i) {
+            channel.offer(i);
+        }
+        for (int i=0; i<20; ++i) {
+            IntcodeChannel next = new IntcodeChannel((i == 19) ? count : 4);
+            IntcodeVm vm = new IntcodeVm(program, MemoryMode.LONG).setInput(channel).setOutput(next);
+            chain.add(vm);
+            scheduler.add(vm);
+            channel = next;
+        }
+        
+        try {
+            scheduler.run();
+            fail("run() should fail on the unknown opcode");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        
+        // Nothing from the failed run may still be running once run() has returned
+        long[] steps = chain.stream().mapToLong(IntcodeVm::getSteps).toArray();
+        Thread.sleep(50);
+        assertArrayEquals("VMs ran after the failed run returned", steps, chain.stream().mapToLong(IntcodeVm::getSteps).toArray());
+        for (IntcodeVm vm : chain) {
+            assertFalse("VM left queued after the failed run", vm.queued.get());
+        }
+    }
     
+    @Test(expected = IllegalStateException.class)
+    public void testIntcodeSchedulerDeadlock() {
+        // Two VMs that each wait to read what the other writes
+        IntcodeChannel ab = new IntcodeChannel(1);
+        IntcodeChannel ba = new IntcodeChannel(1);
+        new IntcodeScheduler(2)
+                .add(new IntcodeVm(incrementProgram(1), MemoryMode.LONG).setInput(ba).setOutput(ab))
+                .add(new IntcodeVm(incrementProgram(1), MemoryMode.LONG).setInput(ab).setOutput(ba))
+                .run();
+    }
 }
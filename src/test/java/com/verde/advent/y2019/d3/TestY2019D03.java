@@ -2,11 +2,13 @@ package com.verde.advent.y2019.d3;
 
 import static org.junit.Assert.assertEquals;
 
+import java.util.Arrays;
 import java.util.List;
 
 import org.junit.Test;
 
 import com.verde.advent.AdventUtils;
+import com.verde.advent.Point2D;
 
 public class TestY2019D03 {
     public static final List<String> STAR_INPUTS = AdventUtils.loadResourceStrings("/2019/day/3/inputs.txt");
@@ -63,6 +65,32 @@ public class TestY2019D03 {
         
         System.out.printf("getMinBestSteps() result: %d\n", result);
         assertEquals("star input two is incorrect", 112316, result);
+        assertEquals("star input two by tracing is incorrect", 112316, Y2019D03.getMinBestStepsByTracing(STAR_INPUTS.get(0), STAR_INPUTS.get(1)));
+    }
+    
+    @Test
+    public void testSegmentsMatchPoints() {
+        String[][] inputs = {
+                { "R75,D30,R83,U83,L12,D49,R71,U7,L72", "U62,R66,U55,R34,D71,R55,D58,R83" },
+                { "R10", "U1,R5,D1,R3" },               // overlapping along a line
+                { "R8,U5,L5,D3", "U7,R6,D4,L4" },
+                { "R5,L10", "L2,R1,U3,D3,R4" },         // doubling back over the origin and over itself
+                { "U4,R4,D8", "R2,U2,R4,L8" },
+        };
+        
+        for (String[] input : inputs) {
+            List<Point2D> path1 = Y2019D03.parsePoints(input[0]);
+            List<Point2D> path2 = Y2019D03.parsePoints(input[1]);
+            
+            // The per-point reference, skipping the origin
+            int manhattan = Y2019D03.getMinDistance(path1, path2, p -> p.equals(Point2D.ORIGIN) ? Integer.MAX_VALUE : p.getManhattanDistanceToOrigin());
+            int steps = Y2019D03.getMinDistance(path1, path2, p -> p.equals(Point2D.ORIGIN) ? Integer.MAX_VALUE : (AdventUtils.indexOf(path1, p) + 1) + (AdventUtils.indexOf(path2, p) + 1));
+            
+            assertEquals(String.format("getMinManhattanDistance() incorrect for %s", Arrays.toString(input)), manhattan, Y2019D03.getMinManhattanDistance(input[0], input[1]));
+            assertEquals(String.format("getMinBestSteps() incorrect for %s", Arrays.toString(input)), steps, Y2019D03.getMinBestSteps(input[0], input[1]));
+            assertEquals(String.format("getMinBestStepsByTracing() incorrect for %s", Arrays.toString(input)), steps, Y2019D03.getMinBestStepsByTracing(input[0], input[1]));
+        }
+        
+        assertEquals("parseSegments() should give a segment per instruction", STAR_INPUTS.get(0).split(",").length, Y2019D03.parseSegments(STAR_INPUTS.get(0)).size());
     }
-
 }
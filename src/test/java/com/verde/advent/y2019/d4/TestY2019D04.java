@@ -1,13 +1,94 @@
 package com.verde.advent.y2019.d4;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.junit.Test;
 
-import com.verde.advent.AdventUtils;
-
 public class TestY2019D04 {
+    /** The straightforward check, one number at a time. */
+    static boolean isValid(long password) {
+        String s = String.valueOf(password);
+        boolean hasPair = false;
+        for (int i=0; i<s.length()-1; ++i) {
+            if (s.charAt(i) > s.charAt(i+1)) {
+                return false;
+            }
+            hasPair |= s.charAt(i) == s.charAt(i+1);
+        }
+        
+        return hasPair;
+    }
+    
+    @Test
+    public void testNumValidPasswords() {
+        int[][] ranges = { { 111111, 111111 }, { 223450, 223450 }, { 123789, 123789 }, { 100000, 999999 }, { 172930, 683082 }, { 999990, 999999 } };
+        
+        for (int[] range : ranges) {
+            long expected = 0;
+            for (int i=range[0]; i<=range[1]; ++i) {
+                expected += isValid(i) ? 1 : 0;
+            }
+            
+            assertEquals(String.format("numValidPasswords() incorrect for [%d, %d]", range[0], range[1]), expected, new Y2019D04().numValidPasswords(range[0], range[1]));
+            assertEquals(String.format("countValidPasswords() incorrect for [%d, %d]", range[0], range[1]), expected, Y2019D04.countValidPasswords(range[0], range[1]));
+        }
+    }
+    
+    @Test
+    public void testForEachValidPassword() {
+        List<Long> passwords = new ArrayList<Long>();
+        Y2019D04.forEachValidPassword(3, 100, 200, passwords::add);
+        
+        List<Long> expected = new ArrayList<Long>();
+        for (long i=100; i<=200; ++i) {
+            if (isValid(i)) {
+                expected.add(i);
+            }
+        }
+        assertEquals("forEachValidPassword() incorrect", expected, passwords);
+    }
+    
+    @Test
+    public void testCountValidPasswords() {
+        // Compare with the brute force over every range boundary up to 5 digits
+        long[] prefixCounts = new long[100000];
+        for (int i=1; i<prefixCounts.length; ++i) {
+            prefixCounts[i] = prefixCounts[i-1] + (isValid(i) ? 1 : 0);
+        }
+        for (int max=0; max<prefixCounts.length; max+=7) {
+            assertEquals(String.format("countValidPasswords(1, %d) incorrect", max), prefixCounts[max], Y2019D04.countValidPasswords(1, max));
+        }
+        
+        // A number of length n with non-decreasing digits is a multiset of n digits from 1..9; take away the strictly increasing ones
+        long expected = 0;
+        for (int n=1; n<=Y2019D04.MAX_DIGITS; ++n) {
+            expected += binomial(n + 8, 8) - binomial(9, n);
+        }
+        long actual = Y2019D04.countValidPasswords(0, 999_999_999_999_999_999L);
+        
+        System.out.printf("Valid passwords of up to %d digits: %d\n", Y2019D04.MAX_DIGITS, actual);
+        assertEquals("countValidPasswords() incorrect for 18 digits", expected, actual);
+        assertTrue("countValidPasswords() should be 0 for an empty range", Y2019D04.countValidPasswords(10, 9) == 0);
+    }
+    
+    @Test(expected = IllegalArgumentException.class)
+    public void testCountValidPasswordsTooWide() {
+        Y2019D04.countValidPasswords(0, Long.MAX_VALUE);
+    }
     
+    static long binomial(int n, int k) {
+        if ((k < 0) || (k > n)) {
+            return 0;
+        }
+        
+        long result = 1;
+        for (int i=1; i<=k; ++i) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
 }